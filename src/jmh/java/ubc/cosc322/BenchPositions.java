@@ -0,0 +1,50 @@
+package ubc.cosc322;
+
+import java.util.Random;
+
+// Fixed positions for the benchmarks, one per game phase.
+//
+// Each position is reached from the start by random legal moves with a
+// fixed seed, so it stays the same from run to run and from one engine
+// version to the next (it does not depend on what the search likes).
+//   opening    : 2 plies, nearly the full ~2000 moves per side
+//   middlegame : 20 plies, the board is starting to close
+//   endgame    : 50 plies, mostly split into regions
+final class BenchPositions {
+
+    private BenchPositions() {
+    }
+
+    // plies and seed of each phase
+    private static final int OPENING_PLIES = 2;
+    private static final int MIDDLEGAME_PLIES = 20;
+    private static final int ENDGAME_PLIES = 50;
+    private static final long SEED = 322;
+
+    // a fresh copy of the position for phase ("opening", "middlegame"
+    // or "endgame").  Black (player 1) is to move in all of them.
+    static Board get(String phase) {
+        switch (phase) {
+            case "opening":    return play(OPENING_PLIES);
+            case "middlegame": return play(MIDDLEGAME_PLIES);
+            case "endgame":    return play(ENDGAME_PLIES);
+            default: throw new IllegalArgumentException("unknown phase " + phase);
+        }
+    }
+
+    private static Board play(int plies) {
+        Board board = new Board();
+        Random rnd = new Random(SEED);
+        int[] buf = new int[Board.MAX_MOVES];
+        int player = 1;
+        for (int i = 0; i < plies; i++) {
+            int n = board.generateMoves(player, buf);
+            if (n == 0) {
+                throw new IllegalStateException("game over after " + i + " plies");
+            }
+            board.applyMove(buf[rnd.nextInt(n)], player);
+            player = 3 - player;
+        }
+        return board;
+    }
+}
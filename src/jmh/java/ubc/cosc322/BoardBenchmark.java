@@ -0,0 +1,83 @@
+package ubc.cosc322;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Move generation and make/unmake on the benchmark positions.
+// Run with -prof gc to see the allocation rate next to ops/s.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"opening", "middlegame", "endgame"})
+    public String phase;
+
+    private Board board;
+    private final int[] buf = new int[Board.MAX_MOVES];
+    private int moveCount;
+    private int next;
+    private int[] queen;
+
+    @Setup
+    public void setup() {
+        board = BenchPositions.get(phase);
+        moveCount = board.generateMoves(1, buf);
+        queen = board.getBlackQueens().get(0);
+    }
+
+    // the list API (allocates a Move per legal move)
+    @Benchmark
+    public List<Move> generateAllMoves() {
+        return board.generateAllMoves(1);
+    }
+
+    // the packed API the search uses
+    @Benchmark
+    public int generateMoves() {
+        return board.generateMoves(1, buf);
+    }
+
+    // the list API (allocates an int[] per square)
+    @Benchmark
+    public List<int[]> getLegalQueenMoves() {
+        return board.getLegalQueenMoves(queen[0], queen[1]);
+    }
+
+    // the same count walking the ray tables
+    @Benchmark
+    public int countQueenMoves() {
+        return board.countQueenMoves(queen[0] * Board.SIZE + queen[1]);
+    }
+
+    @Benchmark
+    public int mobility() {
+        return board.mobility(1) - board.mobility(2);
+    }
+
+    // one packed move on and off again, cycling through all legal moves
+    @Benchmark
+    public long applyUndo() {
+        int m = buf[next];
+        if (++next == moveCount) next = 0;
+        board.applyMove(m, 1);
+        long h = board.getHash();
+        board.undoMove(m, 1);
+        return h;
+    }
+}
@@ -0,0 +1,86 @@
+package ubc.cosc322;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Evaluation, move ordering and a fixed depth search on the benchmark
+// positions.  Black (player 1) is the searching side everywhere.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    // depth of the findBestMove benchmark
+    private static final int SEARCH_DEPTH = 2;
+
+    @Param({"opening", "middlegame", "endgame"})
+    public String phase;
+
+    private Board board;
+    private Minimax minimax;
+    private final TerritoryEvaluator territory = new TerritoryEvaluator();
+
+    private final int[] allMoves = new int[Board.MAX_MOVES];
+    private final int[] moves = new int[Board.MAX_MOVES];
+    private final double[] scores = new double[Board.MAX_MOVES];
+    private int moveCount;
+
+    @Setup
+    public void setup() {
+        board = BenchPositions.get(phase);
+        minimax = new Minimax(1, 2, SEARCH_DEPTH);
+        moveCount = board.generateMoves(1, allMoves);
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return minimax.evaluate(board, territory);
+    }
+
+    @Benchmark
+    public List<Set<Integer>> findConnectedBlocks() {
+        return minimax.findConnectedBlocks(board);
+    }
+
+    // the full root ordering over every legal move
+    @Benchmark
+    public int orderMoves() {
+        System.arraycopy(allMoves, 0, moves, 0, moveCount);
+        return minimax.orderMoves(board, moves, scores, moveCount, 1, 0);
+    }
+
+    // a fresh engine for every call, so the tables start cold
+    @State(Scope.Thread)
+    public static class FreshEngine {
+        Minimax minimax;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            minimax = new Minimax(1, 2, SEARCH_DEPTH);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Move findBestMove(FreshEngine engine) {
+        return engine.minimax.findBestMove(board);
+    }
+}
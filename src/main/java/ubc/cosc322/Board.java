@@ -1,8 +1,10 @@
 package ubc.cosc322;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 
 // board is a 10 x 10 grid, keeping track of the state
 // of the game.  
@@ -12,8 +14,45 @@ public class Board {
 
     public static final int SIZE = 10;
 
+    // upper bound on the number of legal moves in any position:
+    // 4 queens, at most 35 destinations each, at most 35 arrows
+    public static final int MAX_MOVES = 4 * 35 * 35;
+
     private final int[][] grid;
 
+    // bitboards mirroring the grid.  Square index is r * SIZE + c,
+    // squares 0..63 live in word 0 and squares 64..99 in word 1.
+    // occupied holds queens and arrows, queenMask[playerId] only
+    // the queens of that player (index 0 is unused).
+    private final long[] occupied = new long[2];
+    private final long[][] queenMask = new long[3][2];
+
+    // scratch result of queenAttacks, so the hot loops do not
+    // have to allocate a pair of longs for every ray walk
+    private long attackLo;
+    private long attackHi;
+
+    // scratch for updateMobility/rayScan: the empty run and the
+    // blocking square of each of the 8 rays from one square
+    private final int[] rayLen = new int[8];
+    private final int[] rayBlock = new int[8];
+    private int scanLen;
+    private int scanBlock;
+
+    // Zobrist key of the position, updated by applyMove/undoMove
+    private long hash;
+
+    // connected empty regions, updated by applyMove/undoMove
+    private final RegionTracker regions;
+
+    // mobility counters kept up to date by setSquare.  queenMob[sq] is
+    // the number of squares the queen on sq can slide to, adjEmpty[sq]
+    // the number of empty squares next to it (both 0 for other squares).
+    // mob[playerId] is the sum of queenMob over that player's queens.
+    private final int[] queenMob = new int[SIZE * SIZE];
+    private final int[] adjEmpty = new int[SIZE * SIZE];
+    private final int[] mob = new int[3];
+
     // keep track of the white and black queens
     // This is to improve the speed, because we do not
     // have to use for loops each time to find the queens.
@@ -34,9 +73,80 @@ public class Board {
         int prevQueenCol;
     }
 
+    // ray directions as {dr, dc}.  The first four step to a higher
+    // square index, the last four are their opposites (dir + 4).
+    private static final int[][] DIRS = {
+        {0, 1}, {1, -1}, {1, 0}, {1, 1},
+        {0, -1}, {-1, 1}, {-1, 0}, {-1, -1}
+    };
+
+    // RAY_LO/RAY_HI[dir * 100 + sq] hold every square strictly beyond sq
+    // in direction dir, up to the edge of the board.
+    private static final long[] RAY_LO = new long[8 * 100];
+    private static final long[] RAY_HI = new long[8 * 100];
+
+    // index distance of one step in direction dir (always positive)
+    private static final int[] STEP = new int[8];
+
+    // RAYS[dir * 100 + sq] is the same ray as a list of square indices,
+    // nearest first and ending at the edge.  Walking it is the cheap
+    // way to count or visit the squares a queen can slide to.
+    private static final int[][] RAYS = new int[8 * 100][];
+
+    // NEIGHBOURS_LO/HI[sq] hold the (up to 8) squares touching sq
+    private static final long[] NEIGHBOURS_LO = new long[100];
+    private static final long[] NEIGHBOURS_HI = new long[100];
+
+    // Zobrist keys, ZOBRIST[value * 100 + sq] for value 1..3
+    // (black queen, white queen, arrow).  Empty squares hash to 0.
+    // The seed is fixed so keys are stable from run to run.
+    private static final long[] ZOBRIST = new long[4 * 100];
+    // xor-ed in when white (player 2) is to move
+    private static final long ZOBRIST_WHITE_TO_MOVE;
+
+    static {
+        SplittableRandom rnd = new SplittableRandom(0x322A3A20E5L);
+        for (int i = 100; i < ZOBRIST.length; i++) {
+            ZOBRIST[i] = rnd.nextLong();
+        }
+        ZOBRIST_WHITE_TO_MOVE = rnd.nextLong();
+
+        for (int d = 0; d < 8; d++) {
+            for (int sq = 0; sq < 100; sq++) {
+                int r = sq / SIZE + DIRS[d][0];
+                int c = sq % SIZE + DIRS[d][1];
+                long lo = 0, hi = 0;
+                int[] ray = new int[SIZE - 1];
+                int len = 0;
+                while (r >= 0 && r < SIZE && c >= 0 && c < SIZE) {
+                    int t = r * SIZE + c;
+                    ray[len++] = t;
+                    if (t < 64) lo |= 1L << t;
+                    else hi |= 1L << (t - 64);
+                    r += DIRS[d][0];
+                    c += DIRS[d][1];
+                }
+                RAY_LO[d * 100 + sq] = lo;
+                RAY_HI[d * 100 + sq] = hi;
+                RAYS[d * 100 + sq] = Arrays.copyOf(ray, len);
+
+                // the first square of each ray is a neighbour
+                int nr = sq / SIZE + DIRS[d][0];
+                int nc = sq % SIZE + DIRS[d][1];
+                if (nr >= 0 && nr < SIZE && nc >= 0 && nc < SIZE) {
+                    int t = nr * SIZE + nc;
+                    if (t < 64) NEIGHBOURS_LO[sq] |= 1L << t;
+                    else NEIGHBOURS_HI[sq] |= 1L << (t - 64);
+                }
+            }
+            STEP[d] = Math.abs(DIRS[d][0] * SIZE + DIRS[d][1]);
+        }
+    }
+
     // default starting board
     public Board() {
         grid = new int[SIZE][SIZE];
+        regions = new RegionTracker();
         whiteQueens = new ArrayList<>();
         blackQueens = new ArrayList<>();
 
@@ -51,11 +161,13 @@ public class Board {
         placeQueen(6, 9, 2);
         placeQueen(9, 3, 2);
         placeQueen(9, 6, 2);
+        rebuildBitboards();
     }
 
     // from raw 121 list from the server
     public Board(ArrayList<Integer> raw121) {
         grid = new int[SIZE][SIZE];
+        regions = new RegionTracker();
         whiteQueens = new ArrayList<>();  // keep track of the white queen
         blackQueens = new ArrayList<>();  // keep track of the black queen
         transformListTo2D(raw121);
@@ -63,15 +175,29 @@ public class Board {
     }
 
 
+    // recompute the Zobrist key from scratch.  This walks all 100
+    // squares, use getHash() in the search instead.
+    // Black moves first and every move shoots one arrow, so an odd
+    // number of arrows means white is to move.
     public long computeHash() {
-        long hash = 0;
+        long h = 0;
+        int arrows = 0;
 
         for (int r = 0; r < SIZE; r++) {
             for (int c = 0; c < SIZE; c++) {
-                hash = hash * 31 + grid[r][c];
+                int v = grid[r][c];
+                if (v != 0) h ^= ZOBRIST[v * 100 + r * SIZE + c];
+                if (v == 3) arrows++;
             }
         }
+        if ((arrows & 1) == 1) h ^= ZOBRIST_WHITE_TO_MOVE;
 
+        return h;
+    }
+
+    // the Zobrist key of the current position, kept up to date
+    // by applyMove/undoMove with a few xors per move.
+    public long getHash() {
         return hash;
     }
 
@@ -79,6 +205,7 @@ public class Board {
     // board
     public Board(Board other) {
         grid = new int[SIZE][SIZE];
+        regions = new RegionTracker(other.regions);
         // duplicate the grid (other -> grid)
         for (int r = 0; r < SIZE; r++) {
             System.arraycopy(other.grid[r], 0, this.grid[r], 0, SIZE);
@@ -97,6 +224,17 @@ public class Board {
         for (int[] q : other.blackQueens) {
             blackQueens.add(new int[]{q[0], q[1]});
         }
+
+        occupied[0] = other.occupied[0];
+        occupied[1] = other.occupied[1];
+        for (int p = 1; p <= 2; p++) {
+            queenMask[p][0] = other.queenMask[p][0];
+            queenMask[p][1] = other.queenMask[p][1];
+        }
+        hash = other.hash;
+        System.arraycopy(other.queenMob, 0, queenMob, 0, queenMob.length);
+        System.arraycopy(other.adjEmpty, 0, adjEmpty, 0, adjEmpty.length);
+        System.arraycopy(other.mob, 0, mob, 0, mob.length);
     }
 
     // places a queen into the grid 
@@ -122,6 +260,152 @@ public class Board {
                 else if (grid[r][c] == 2) whiteQueens.add(new int[]{r, c});
             }
         }
+        rebuildBitboards();
+    }
+
+    // rebuild the occupancy and queen bitboards, the Zobrist key,
+    // the mobility counters and the empty regions from the grid.
+    private void rebuildBitboards() {
+        occupied[0] = occupied[1] = 0;
+        queenMask[1][0] = queenMask[1][1] = 0;
+        queenMask[2][0] = queenMask[2][1] = 0;
+        for (int sq = 0; sq < SIZE * SIZE; sq++) {
+            setBits(sq, grid[sq / SIZE][sq % SIZE]);
+        }
+        hash = computeHash();
+
+        mob[1] = mob[2] = 0;
+        for (int sq = 0; sq < SIZE * SIZE; sq++) {
+            int v = grid[sq / SIZE][sq % SIZE];
+            if (v == 1 || v == 2) {
+                queenAttacks(sq, occupied[0], occupied[1]);
+                queenMob[sq] = Long.bitCount(attackLo) + Long.bitCount(attackHi);
+                adjEmpty[sq] = countAdjacentEmpty(sq);
+                mob[v] += queenMob[sq];
+            } else {
+                queenMob[sq] = 0;
+                adjEmpty[sq] = 0;
+            }
+        }
+
+        boolean[] empty = new boolean[SIZE * SIZE];
+        for (int sq = 0; sq < SIZE * SIZE; sq++) {
+            empty[sq] = grid[sq / SIZE][sq % SIZE] == 0;
+        }
+        regions.rebuild(empty);
+    }
+
+    // set the bitboard bits for a square holding value
+    private void setBits(int sq, int value) {
+        if (value == 0) return;
+        long bit = 1L << (sq & 63);
+        int w = sq >>> 6;
+        occupied[w] |= bit;
+        if (value == 1 || value == 2) queenMask[value][w] |= bit;
+    }
+
+    // clear the bitboard bits for a square
+    private void clearBits(int sq) {
+        long bit = ~(1L << (sq & 63));
+        int w = sq >>> 6;
+        occupied[w] &= bit;
+        queenMask[1][w] &= bit;
+        queenMask[2][w] &= bit;
+    }
+
+    // write a value into the grid and keep the bitboards, the
+    // Zobrist key and the mobility counters in sync
+    private void setSquare(int r, int c, int value) {
+        setSquare(r * SIZE + c, value);
+    }
+
+    private void setSquare(int sq, int value) {
+        int r = sq / SIZE, c = sq % SIZE;
+        int old = grid[r][c];
+        if (old != 0) hash ^= ZOBRIST[old * 100 + sq];
+        if (value != 0) hash ^= ZOBRIST[value * 100 + sq];
+        updateMobility(sq, old, value);
+        clearBits(sq);
+        setBits(sq, value);
+        grid[r][c] = value;
+    }
+
+    // update the mobility counters for square sq going from old to
+    // value.  Must run before the bitboards change.  Only the queens
+    // that see sq along a ray, or stand next to it, are touched: a
+    // queen looking at sq from direction d gains or loses sq plus the
+    // empty run on the other side of sq.
+    private void updateMobility(int sq, int old, int value) {
+        if (old == value) return;
+
+        // empty run from sq in each direction, and the square blocking it
+        int[] len = rayLen;
+        int[] block = rayBlock;
+        for (int d = 0; d < 8; d++) {
+            rayScan(sq, d);
+            len[d] = scanLen;
+            block[d] = scanBlock;
+        }
+
+        if ((old == 0) != (value == 0)) {
+            int sign = (value == 0) ? 1 : -1;
+            for (int d = 0; d < 8; d++) {
+                int b = block[d];
+                if (b < 0) continue;
+                int q = grid[b / SIZE][b % SIZE];
+                if (q != 1 && q != 2) continue;
+                int delta = sign * (1 + len[(d + 4) & 7]);
+                queenMob[b] += delta;
+                mob[q] += delta;
+                // the blocker is a neighbour when the run is empty
+                if (len[d] == 0) adjEmpty[b] += sign;
+            }
+        }
+
+        if (old == 1 || old == 2) {
+            mob[old] -= queenMob[sq];
+            queenMob[sq] = 0;
+            adjEmpty[sq] = 0;
+        }
+        if (value == 1 || value == 2) {
+            int m = 0;
+            for (int d = 0; d < 8; d++) m += len[d];
+            queenMob[sq] = m;
+            adjEmpty[sq] = countAdjacentEmpty(sq);
+            mob[value] += m;
+        }
+    }
+
+    // walk the ray from sq in direction d on the current occupancy.
+    // Leaves the number of empty squares in scanLen and the first
+    // occupied square in scanBlock (-1 when the ray runs off the board).
+    private void rayScan(int sq, int d) {
+        int idx = d * 100 + sq;
+        long rLo = RAY_LO[idx];
+        long rHi = RAY_HI[idx];
+        long bLo = rLo & occupied[0];
+        long bHi = rHi & occupied[1];
+        if ((bLo | bHi) == 0) {
+            scanLen = Long.bitCount(rLo) + Long.bitCount(rHi);
+            scanBlock = -1;
+            return;
+        }
+        int b;
+        if (d < 4) {
+            b = (bLo != 0) ? Long.numberOfTrailingZeros(bLo)
+                           : 64 + Long.numberOfTrailingZeros(bHi);
+        } else {
+            b = (bHi != 0) ? 127 - Long.numberOfLeadingZeros(bHi)
+                           : 63 - Long.numberOfLeadingZeros(bLo);
+        }
+        scanLen = Math.abs(b - sq) / STEP[d] - 1;
+        scanBlock = b;
+    }
+
+    // number of empty squares touching sq
+    private int countAdjacentEmpty(int sq) {
+        return Long.bitCount(NEIGHBOURS_LO[sq] & ~occupied[0])
+             + Long.bitCount(NEIGHBOURS_HI[sq] & ~occupied[1]);
     }
 
     
@@ -131,8 +415,10 @@ public class Board {
 	 // (matches COSC322Test: playerId=1 for black, playerId=2 for white)
 	 // It is actually a 11 x 11 board
 	 // row 0 and column 11 are padded with 0s
-	 // This board class removes the padding and shrinks it down to a 10 x 10 board
-	 public void transformListTo2D(ArrayList<Integer> raw121) {
+	 // This board class removes the padding and shrinks it down to a 10 x 10 board.
+	 // Only writes the grid: the caller rebuilds the bitboards, key,
+	 // counters and regions afterwards (see the raw121 constructor).
+	 private void transformListTo2D(ArrayList<Integer> raw121) {
         for (int r = 1; r <= 10; r++) {
             for (int c = 1; c <= 10; c++) {
                 int value = raw121.get(r * 11 + c);
@@ -204,13 +490,20 @@ public class Board {
         rec.prevQueenCol = c1;
 
         // apply the changes to the board
-        grid[r1][c1] = 0;
-        grid[r2][c2] = playerId;
-        grid[r3][c3] = 3;
+        regions.begin();
+        setSquare(r1, c1, 0);
+        regions.changed(r1 * SIZE + c1, rec.prevFromVal, 0);
+        regions.changed(r2 * SIZE + c2, grid[r2][c2], playerId);
+        setSquare(r2, c2, playerId);
+        regions.changed(r3 * SIZE + c3, grid[r3][c3], 3);
+        setSquare(r3, c3, 3);
+        hash ^= ZOBRIST_WHITE_TO_MOVE;
 
         // update the queen list of the board
         if (idx >= 0) {
-            qList.set(idx, new int[]{r2, c2});
+            int[] q = qList.get(idx);
+            q[0] = r2;
+            q[1] = c2;
         }
 
         return rec;
@@ -223,122 +516,328 @@ public class Board {
         int r3 = m.arrowRow, c3 = m.arrowCol;
 
         // restore the previous saved move values
-        grid[r1][c1] = rec.prevFromVal;
-        grid[r2][c2] = rec.prevToVal;
-        grid[r3][c3] = rec.prevArrowVal;
+        setSquare(r1, c1, rec.prevFromVal);
+        setSquare(r2, c2, rec.prevToVal);
+        setSquare(r3, c3, rec.prevArrowVal);
+        hash ^= ZOBRIST_WHITE_TO_MOVE;
+        regions.rollback();
 
         // restore the queen list value
         List<int[]> qList = (playerId == 1) ? blackQueens : whiteQueens;
         if (rec.queenIndex >= 0) {
-            qList.set(rec.queenIndex, new int[]{rec.prevQueenRow, rec.prevQueenCol});
+            int[] q = qList.get(rec.queenIndex);
+            q[0] = rec.prevQueenRow;
+            q[1] = rec.prevQueenCol;
         }
     }
 
-    // generate all moves for a player using queen lists
-    public List<Move> generateAllMoves(int playerId) {
-        List<Move> moves = new ArrayList<>();
+    // apply a packed move (see Move.pack) without allocating.
+    // The move must be legal: the queen square holds playerId and
+    // the destination and arrow squares are empty (the arrow may land
+    // on the square the queen left).  Undo with undoMove(int, int).
+    public void applyMove(int move, int playerId) {
+        int from  = Move.from(move);
+        int to    = Move.to(move);
+        int arrow = Move.arrow(move);
+
+        regions.begin();
+        setSquare(from, 0);
+        regions.vacate(from);
+        setSquare(to, playerId);
+        regions.occupy(to);
+        setSquare(arrow, 3);
+        regions.occupy(arrow);
+        hash ^= ZOBRIST_WHITE_TO_MOVE;
+        moveQueen(playerId, from, to);
+    }
+
+    // undo a packed move made by applyMove(int, int)
+    public void undoMove(int move, int playerId) {
+        int from  = Move.from(move);
+        int to    = Move.to(move);
+        int arrow = Move.arrow(move);
+
+        // the arrow goes first, it may sit on the from square
+        setSquare(arrow, 0);
+        setSquare(to, 0);
+        setSquare(from, playerId);
+        hash ^= ZOBRIST_WHITE_TO_MOVE;
+        regions.rollback();
+        moveQueen(playerId, to, from);
+    }
+
+    // move a queen in the queen list from one square to another
+    private void moveQueen(int playerId, int from, int to) {
         List<int[]> qList = (playerId == 1) ? blackQueens : whiteQueens;
+        int fr = from / SIZE, fc = from % SIZE;
+        for (int i = 0; i < qList.size(); i++) {
+            int[] q = qList.get(i);
+            if (q[0] == fr && q[1] == fc) {
+                q[0] = to / SIZE;
+                q[1] = to % SIZE;
+                return;
+            }
+        }
+    }
 
-        // for each queen in queen list get all the legal queen moves
-        // arrow is also a queen move.
-        for (int[] q : qList) {
-            int qr = q[0];
-            int qc = q[1];
-
-            // create a list of all possible queen moves for one queen
-            List<int[]> queenMoves = getLegalQueenMoves(qr, qc);
-
-            // now we need to create all the possible moves of the arrow
-            // for a queen.
-            for (int[] dest : queenMoves) {
-                int dr = dest[0];
-                int dc = dest[1];
-
-                // to generate arrow moves from the queen's new position
-                // we need to temporarily move queen on grid to generate arrow moves
-                int oldFrom = grid[qr][qc];
-                int oldTo   = grid[dr][dc];
-
-                // set the queen move
-                grid[qr][qc] = 0;
-                grid[dr][dc] = playerId;
-
-                // Arrow moves share the same rule as queen moves
-                List<int[]> arrows = getLegalQueenMoves(dr, dc);
-
-                // restore the queen move
-                grid[qr][qc] = oldFrom;
-                grid[dr][dc] = oldTo;
-
-                // now we have all moves for one queen with all
-                // possible arrow moves.  This is large.  We save
-                // all possible moves (states) into a list
-                for (int[] arr : arrows) {
-                    moves.add(new Move(
-                            qr, qc,
-                            dr, dc,
-                            arr[0], arr[1]
-                    ));
+    // generate all moves for a player as Move objects.
+    // The search uses generateMoves(int, int[]) instead, this is
+    // kept for callers that want a list (e.g. validating human moves).
+    public List<Move> generateAllMoves(int playerId) {
+        int[] buf = new int[MAX_MOVES];
+        int n = generateMoves(playerId, buf);
+        List<Move> moves = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            moves.add(Move.unpack(buf[i]));
+        }
+        return moves;
+    }
+
+    // generate all moves for a player using the bitboards, written as
+    // packed ints (see Move.pack) into the caller's buffer, which must
+    // hold at least MAX_MOVES entries.  Returns the number of moves.
+    // queen destinations and arrow targets are the sliding attacks
+    // of the queen, computed from the precomputed ray masks.
+    public int generateMoves(int playerId, int[] buf) {
+        int n = 0;
+        long occLo = occupied[0];
+        long occHi = occupied[1];
+
+        // for each queen of the player, find its destinations
+        long qLo = queenMask[playerId][0];
+        long qHi = queenMask[playerId][1];
+        while ((qLo | qHi) != 0) {
+            int from;
+            if (qLo != 0) { from = Long.numberOfTrailingZeros(qLo); qLo &= qLo - 1; }
+            else          { from = 64 + Long.numberOfTrailingZeros(qHi); qHi &= qHi - 1; }
+
+            queenAttacks(from, occLo, occHi);
+            long toLo = attackLo;
+            long toHi = attackHi;
+
+            // the queen leaves its square, so the arrow may land there
+            long emptyFromLo = occLo, emptyFromHi = occHi;
+            if (from < 64) emptyFromLo &= ~(1L << from);
+            else emptyFromHi &= ~(1L << (from - 64));
+
+            while ((toLo | toHi) != 0) {
+                int to;
+                if (toLo != 0) { to = Long.numberOfTrailingZeros(toLo); toLo &= toLo - 1; }
+                else           { to = 64 + Long.numberOfTrailingZeros(toHi); toHi &= toHi - 1; }
+
+                // arrow moves share the same rule as queen moves,
+                // shot from the queen's new square
+                if (to < 64) queenAttacks(to, emptyFromLo | (1L << to), emptyFromHi);
+                else queenAttacks(to, emptyFromLo, emptyFromHi | (1L << (to - 64)));
+                long arLo = attackLo;
+                long arHi = attackHi;
+
+                int fromTo = from | (to << 7);
+                while (arLo != 0) {
+                    buf[n++] = fromTo | (Long.numberOfTrailingZeros(arLo) << 14);
+                    arLo &= arLo - 1;
+                }
+                while (arHi != 0) {
+                    buf[n++] = fromTo | ((64 + Long.numberOfTrailingZeros(arHi)) << 14);
+                    arHi &= arHi - 1;
                 }
             }
         }
 
-        return moves;
+        return n;
     }
 
-    // Simple heuristic to count the total moves of all white or black queens
-    public int mobility(int playerId) {
-        int count = 0;
-        List<int[]> qList = (playerId == 1) ? blackQueens : whiteQueens;
-        
-        // for each queen in the queen list, we count every possible move
-        // the queen can make.
-        for (int[] q : qList) {
-            count += getLegalQueenMoves(q[0], q[1]).size();
+    // generate only the queen part of the moves, packed as from | to << 7
+    // with no arrow.  buf needs room for 4 * 35 entries.  Moves of the
+    // same queen come out next to each other.  Used by MovePicker to
+    // rank queen moves before any arrow is generated.
+    public int generateQueenMoves(int playerId, int[] buf) {
+        int n = 0;
+        long occLo = occupied[0];
+        long occHi = occupied[1];
+
+        long qLo = queenMask[playerId][0];
+        long qHi = queenMask[playerId][1];
+        while ((qLo | qHi) != 0) {
+            int from;
+            if (qLo != 0) { from = Long.numberOfTrailingZeros(qLo); qLo &= qLo - 1; }
+            else          { from = 64 + Long.numberOfTrailingZeros(qHi); qHi &= qHi - 1; }
+
+            queenAttacks(from, occLo, occHi);
+            long toLo = attackLo;
+            long toHi = attackHi;
+            while (toLo != 0) {
+                buf[n++] = from | (Long.numberOfTrailingZeros(toLo) << 7);
+                toLo &= toLo - 1;
+            }
+            while (toHi != 0) {
+                buf[n++] = from | ((64 + Long.numberOfTrailingZeros(toHi)) << 7);
+                toHi &= toHi - 1;
+            }
         }
-        return count;
+        return n;
     }
 
-    // returns a list of all the legal queen moves for a single queen.
-    public List<int[]> getLegalQueenMoves(int r, int c) {
-        List<int[]> moves = new ArrayList<>();
-        int[] dirs = {-1, 0, 1};
-        // directions: -1, -1 Down Left
-        //			   -1,  0 Down
-        //             -1,  1 Down Right
-        //              0,  0 Ignore (continue)
-        //              0, -1 Left
-        //              0,  1 Right
-        //              1, -1 Up Left
-        //              1,  0 Up
-        //              1,  1 Up Right
-
-        for (int dr : dirs) {
-            for (int dc : dirs) {
-                if (dr == 0 && dc == 0) continue;
-
-                int nr = r + dr;
-                int nc = c + dc;
-
-                while (inBounds(nr, nc) && grid[nr][nc] == 0) {
-                    moves.add(new int[]{nr, nc});
-                    nr += dr;
-                    nc += dc;
+    // generate the arrow squares for a queen moving from -> to.
+    // buf needs room for 35 entries.  Returns the number of arrows.
+    public int generateArrows(int from, int to, int[] buf) {
+        arrowAttacks(from, to);
+        long arLo = attackLo;
+        long arHi = attackHi;
+        int n = 0;
+        while (arLo != 0) {
+            buf[n++] = Long.numberOfTrailingZeros(arLo);
+            arLo &= arLo - 1;
+        }
+        while (arHi != 0) {
+            buf[n++] = 64 + Long.numberOfTrailingZeros(arHi);
+            arHi &= arHi - 1;
+        }
+        return n;
+    }
+
+    // number of arrow squares for a queen moving from -> to, which is
+    // also the mobility the queen has after the move
+    public int countArrows(int from, int to) {
+        arrowAttacks(from, to);
+        return Long.bitCount(attackLo) + Long.bitCount(attackHi);
+    }
+
+    // check that a packed move is legal for playerId in this position.
+    // Used to validate moves that come from the transposition table.
+    public boolean isLegalMove(int move, int playerId) {
+        int from  = Move.from(move);
+        int to    = Move.to(move);
+        int arrow = Move.arrow(move);
+        if (from >= 100 || to >= 100 || arrow >= 100) return false;
+        if ((queenMask[playerId][from >>> 6] & (1L << (from & 63))) == 0) return false;
+
+        queenAttacks(from, occupied[0], occupied[1]);
+        long toWord = (to < 64) ? attackLo : attackHi;
+        if ((toWord & (1L << (to & 63))) == 0) return false;
+
+        arrowAttacks(from, to);
+        long arrowWord = (arrow < 64) ? attackLo : attackHi;
+        return (arrowWord & (1L << (arrow & 63))) != 0;
+    }
+
+    // arrow targets for a queen moving from -> to: the queen attacks
+    // from the destination with the from square emptied
+    private void arrowAttacks(int from, int to) {
+        long oLo = occupied[0];
+        long oHi = occupied[1];
+        if (from < 64) oLo &= ~(1L << from);
+        else oHi &= ~(1L << (from - 64));
+        if (to < 64) oLo |= 1L << to;
+        else oHi |= 1L << (to - 64);
+        queenAttacks(to, oLo, oHi);
+    }
+
+    // Simple heuristic to count the total moves of all white or black queens.
+    // Read from the counters setSquare keeps up to date.
+    public int mobility(int playerId) {
+        return mob[playerId];
+    }
+
+    // number of squares the queen on sq can slide to (0 if no queen)
+    public int queenMobility(int sq) {
+        return queenMob[sq];
+    }
+
+    // number of empty squares next to the queen on sq (0 if no queen)
+    public int adjacentEmpty(int sq) {
+        return adjEmpty[sq];
+    }
+
+    // sliding attacks of a queen on square sq for the given occupancy.
+    // For each direction we take the ray mask, find the first blocker
+    // on it and remove everything from the blocker onwards.  The result
+    // is left in attackLo/attackHi.
+    private void queenAttacks(int sq, long occLo, long occHi) {
+        long lo = 0, hi = 0;
+        for (int d = 0; d < 8; d++) {
+            int idx = d * 100 + sq;
+            long rLo = RAY_LO[idx];
+            long rHi = RAY_HI[idx];
+            long bLo = rLo & occLo;
+            long bHi = rHi & occHi;
+            if ((bLo | bHi) != 0) {
+                int block;
+                if (d < 4) {
+                    // ray goes up in index, the nearest blocker is the lowest bit
+                    block = (bLo != 0) ? Long.numberOfTrailingZeros(bLo)
+                                       : 64 + Long.numberOfTrailingZeros(bHi);
+                } else {
+                    // ray goes down in index, the nearest blocker is the highest bit
+                    block = (bHi != 0) ? 127 - Long.numberOfLeadingZeros(bHi)
+                                       : 63 - Long.numberOfLeadingZeros(bLo);
                 }
+                int bIdx = d * 100 + block;
+                rLo &= ~RAY_LO[bIdx];
+                rHi &= ~RAY_HI[bIdx];
+                if (block < 64) rLo &= ~(1L << block);
+                else rHi &= ~(1L << (block - 64));
+            }
+            lo |= rLo;
+            hi |= rHi;
+        }
+        attackLo = lo;
+        attackHi = hi;
+    }
+
+    // sees each square a queen can slide to
+    public interface SquareVisitor {
+        void visit(int sq);
+    }
+
+    // number of empty squares a queen on sq can slide to.  Unlike
+    // queenMobility this does not need a queen on sq, and unlike
+    // getLegalQueenMoves it allocates nothing.
+    public int countQueenMoves(int sq) {
+        int n = 0;
+        for (int d = 0; d < 8; d++) {
+            for (int t : RAYS[d * 100 + sq]) {
+                if (((occupied[t >>> 6] >>> (t & 63)) & 1) != 0) break;
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // show the visitor every square a queen on sq can slide to, one
+    // direction after the other, nearest first.  Returns the count.
+    public int visitQueenMoves(int sq, SquareVisitor v) {
+        int n = 0;
+        for (int d = 0; d < 8; d++) {
+            for (int t : RAYS[d * 100 + sq]) {
+                if (((occupied[t >>> 6] >>> (t & 63)) & 1) != 0) break;
+                v.visit(t);
+                n++;
             }
         }
+        return n;
+    }
+
+    // returns a list of all the legal queen moves for a single queen.
+    // Allocates one int[] per square, use countQueenMoves when only
+    // the number is needed.
+    public List<int[]> getLegalQueenMoves(int r, int c) {
+        List<int[]> moves = new ArrayList<>(countQueenMoves(r * SIZE + c));
+        visitQueenMoves(r * SIZE + c, t -> moves.add(new int[]{t / SIZE, t % SIZE}));
         return moves;
     }
 
     // check if the player has any moves left.
-    // --todo-- can we improve on this.  May be it is OK
+    // A queen that can slide anywhere can always shoot back into
+    // the square it just left, so one free destination is enough.
     public boolean hasAnyMove(int playerId) {
-        return !generateAllMoves(playerId).isEmpty();
+        return mob[playerId] > 0;
     }
 
-    // check of the row and column is ouside the bounds of the board
-    private boolean inBounds(int r, int c) {
-        return r >= 0 && r < SIZE && c >= 0 && c < SIZE;
+    // the connected empty regions of the board.  Read only: the
+    // tracker is updated by applyMove/undoMove.
+    public RegionTracker getRegions() {
+        return regions;
     }
 
     // get what is in the row and column of the grid(board)
@@ -346,9 +845,34 @@ public class Board {
         return grid[r][c];
     }
     
-    // set the row and column of the grid(board) with a value
+    // set the row and column of the grid(board) with a value.
+    // Meant for setting up a position outside of a move; the key,
+    // counters, regions and queen lists are updated incrementally
+    // like in applyMove.  An arrow flips the side to move in the key,
+    // as in computeHash.
     public void set(int r, int c, int value) { 
-    	grid[r][c] = value; 
+    	int sq = r * SIZE + c;
+    	int old = grid[r][c];
+    	if (old == value) return;
+    	if ((old == 3) != (value == 3)) hash ^= ZOBRIST_WHITE_TO_MOVE;
+    	if (old == 1 || old == 2) removeQueen(old, r, c);
+    	if (value == 1 || value == 2) {
+    	    ((value == 1) ? blackQueens : whiteQueens).add(new int[]{r, c});
+    	}
+    	regions.changed(sq, old, value);
+    	setSquare(sq, value);
+    }
+
+    // drop the queen on (r, c) from the list of playerId
+    private void removeQueen(int playerId, int r, int c) {
+        List<int[]> qList = (playerId == 1) ? blackQueens : whiteQueens;
+        for (int i = 0; i < qList.size(); i++) {
+            int[] q = qList.get(i);
+            if (q[0] == r && q[1] == c) {
+                qList.remove(i);
+                return;
+            }
+        }
     }
 
     // return a list of white queens
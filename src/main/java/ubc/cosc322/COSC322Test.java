@@ -1,11 +1,17 @@
 
 package ubc.cosc322;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import sfs2x.client.entities.Room;
 import ygraph.ai.smartfox.games.BaseGameGUI;
@@ -28,6 +34,33 @@ public class COSC322Test extends GamePlayer{
 	private static final boolean LOCAL_MODE = false;   // toggle local mode
 	private static final boolean AIVSAI_MODE = false;  // toggle AI vs AI mode
 
+	// number of Minimax search threads, e.g. -Dthreads=4.  Defaults to 1:
+	// Lazy SMP has not beaten one thread in ParallelSearchBench yet.
+	private static final int SEARCH_THREADS = Integer.getInteger("threads", 1);
+
+	// search time per move in ms, e.g. -DmoveTimeMs=20000.  Keep it well
+	// under the server's move clock to leave room for the network.
+	private static final long MOVE_TIME_MS = Long.getLong("moveTimeMs", 25000);
+
+	// which engine plays against the server: -Dengine=mcts for
+	// MonteCarloSearch, anything else for Minimax
+	private static final boolean USE_MCTS = "mcts".equalsIgnoreCase(System.getProperty("engine"));
+
+	// opening book built by OpeningBookBuilder, e.g. -Dbook=opening.book.
+	// Played without searching while the game is still in it.
+	private static final String BOOK_FILE = System.getProperty("book", "opening.book");
+
+	// think on the opponent's time (Minimax only), -Dponder=false to turn off
+	private static final boolean PONDER = Boolean.parseBoolean(System.getProperty("ponder", "true"));
+
+	// evaluation and ordering weights, e.g. -Dparams=tuned.params (written
+	// by Tuner).  The built-in defaults are used if the file is missing.
+	private static final String PARAMS_FILE = System.getProperty("params", "eval.params");
+
+	// finished games are appended to this file (see GameRecord),
+	// e.g. -Drecords=games.rec; -Drecords= to turn off
+	private static final String RECORD_FILE = System.getProperty("records", "games.rec");
+
     private GameClient gameClient = null; 
     private BaseGameGUI gamegui = null;
 	
@@ -39,6 +72,28 @@ public class COSC322Test extends GamePlayer{
 	
 	private Board board;     // the game board
 	private Minimax myAI;    // Minimax AI
+	private MonteCarloSearch mctsAI;   // MCTS AI, only when USE_MCTS
+	private OpeningBook book;          // null if there is no book file
+	private Ponderer ponderer;         // null unless pondering
+	private GameRecord record;         // moves so far, null if not recording
+
+	// depth and nodes of the last searchMove, 0 for book and pondered moves
+	private int lastDepth;
+	private long lastNodes;
+
+	// all board updates, searches and move sends run on this one
+	// thread, in the order the messages came in.  The SmartFox callback
+	// only queues work here, so it is never blocked by a search.
+	private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "search");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// time from receiving the opponent's move to sending ours
+	private long latencyTotalNs = 0;
+	private long latencyMaxNs = 0;
+	private int latencyCount = 0;
 	
 	// some variable to used by Minimax
 	int moveCount = 0;     // count the number of turn
@@ -331,7 +386,6 @@ public class COSC322Test extends GamePlayer{
     	//For a detailed description of the message types and format, 
     	//see the method GamePlayer.handleGameMessage() in the game-client-api document. 
     	 
-    	Move myMove = null;
     	System.out.println("handleGameMsg_____");
         System.out.println(messageType);
 
@@ -352,14 +406,18 @@ public class COSC322Test extends GamePlayer{
             	// update the gui with the game board
             	this.getGameGUI().setGameState(gbCurrentState);
             	
-            	// Only initialize board ONCE 
-            	if (board == null)
-            		board = new Board(gbCurrentState); 
-            	else
-            		board.printBoard(); 
+            	// Only initialize board ONCE (on the search thread, which
+            	// owns the board)
+            	searchExecutor.execute(() -> {
+            		if (board == null)
+            			board = new Board(gbCurrentState); 
+            		else
+            			board.printBoard(); 
+            	});
             	
             	break;
             case (GameMessage.GAME_ACTION_MOVE):
+                long receivedAt = System.nanoTime();
                 System.out.println("Game Move");
 
                 // 1. Extract opponent move (server uses 1-based indexing)
@@ -376,61 +434,16 @@ public class COSC322Test extends GamePlayer{
                 int aR  = arrowPos.get(0)        - 1;
                 int aC  = arrowPos.get(1)        - 1;
 
-                // Debug print
-                System.out.println("***** Opposition Move *****");
-                System.out.println("Current Queen: (" + qR + "," + qC + ")");
-                System.out.println("Next Queen:    (" + nR + "," + nC + ")");
-                System.out.println("Arrow:         (" + aR + "," + aC + ")");
-                System.out.println("***************************");
-
                 // 2. Build Move object using your new Move class
                 Move oppMove = new Move(qR, qC, nR, nC, aR, aC);
 
-                // --todo--
-                // do we need to verify opponents move
-                
-                // 3. Apply opponent move to your board
-                board.applyMove(oppMove, opponentId);
-
-                // 4. Update GUI with opponent move (1-based indexing) 
-                gamegui.updateGameState( new ArrayList<>(List.of(qR+1, qC+1)), 
-                		new ArrayList<>(List.of(nR+1, nC+1)), 
-                		new ArrayList<>(List.of(aR+1, aC+1)) );
-                
-                
-                // 5. Check if I have any moves left 
-                if (!board.hasAnyMove(playerId)) {
-                    System.out.println("No moves left -- I Lose.");
-                    return true;
-                }
-                
-                int depth;
-                if (moveCount < 10) depth = 2;
-                else if (moveCount < 30) depth = 3;
-                else if (moveCount < 40) depth = 4;
-                else depth = 5;
-
-                myAI.setDepth(depth);
-                
-                // 5. Now generate your move and send it
-                myMove = myAI.findBestMove(board);
-                moveCount++;
-
-                // 6. Send my move to the server and update the GUI
-                sendMoveToServerAndGui(myMove);
-        		
-        		// 7. Update internal board 
-                board.applyMove(myMove, playerId);	
-                
-                // 8. Check if the opponent has any moves left
-                if (!board.hasAnyMove(opponentId)) {
-                    System.out.println("You have no more moves left -- I Win.");
-                    return true;
-                }
+                // 3. Hand it to the search thread and return right away
+                searchExecutor.execute(() -> playTurn(oppMove, receivedAt));
 
                 break;
 
             case (GameMessage.GAME_ACTION_START):
+            	long startedAt = System.nanoTime();
             	System.out.println("$$$$$Game Start");
             	String playerBlack = (String) msgDetails.get(AmazonsGameMessage.PLAYER_BLACK);
             	String playerWhite = (String) msgDetails.get(AmazonsGameMessage.PLAYER_WHITE);
@@ -456,34 +469,9 @@ public class COSC322Test extends GamePlayer{
             	//board = new Board();
             	//gamegui.setGameState(board.toRaw121());
             	
-            	// Initialize AI with correct IDs (you can tune initial depth) 
-            	myAI = new Minimax(playerId, opponentId, 2);  // depth default is 2
-                
-                
-            	// Black moves first
-            	if (playerId == 1) {
-            		System.out.println("Here I go first...");
-            		
-            		// Make my first move
-            		myMove = myAI.findBestMove(board);
-            		moveCount++;
-            		
-            		sendMoveToServerAndGui(myMove);
-            		
-            		// --todo--
-            		// after you send Moves to server the server will send 
-            		// message GAME_STATE_BOARD, so do not need to update
-            		// our copy of the board
-            		// Update internal board 
-            		board.applyMove(myMove, playerId);
-            		
-            		//board.printBoard();
-            		
-            	} else {
-            		System.out.println("I go after you...");
-            		// White waits for opponent's first move (GAME_ACTION_MOVE), 
-            		// then a new GAME_STATE_BOARD, then moves.
-            	}
+            	// set up the AI and, as black, make the first move,
+            	// both on the search thread
+            	searchExecutor.execute(() -> startGame(startedAt));
             		
                 break;
             default:
@@ -493,6 +481,188 @@ public class COSC322Test extends GamePlayer{
     }
     
     
+    // runs on the search thread: set up the AI and, if we are black,
+    // make the first move
+    private void startGame(long receivedAt) {
+    	// Initialize AI with correct IDs (you can tune initial depth) 
+    	book = loadBook();
+    	if (USE_MCTS) {
+    		mctsAI = new MonteCarloSearch(playerId, opponentId);
+    		mctsAI.setThreads(SEARCH_THREADS);
+    	} else {
+    		myAI = new Minimax(playerId, opponentId, 2);  // depth default is 2
+    		myAI.setThreads(SEARCH_THREADS);
+    		myAI.setParams(EvalParams.loadOrDefault(Paths.get(PARAMS_FILE)));
+    		if (PONDER) ponderer = new Ponderer(myAI, playerId, opponentId, MOVE_TIME_MS);
+    	}
+    	// the record assumes the usual start position
+    	record = RECORD_FILE.isEmpty() ? null : new GameRecord();
+
+    	// Black moves first
+    	if (playerId == 1) {
+    		System.out.println("Here I go first...");
+
+    		// Make my first move
+    		Move myMove = searchMove();
+    		moveCount++;
+
+    		sendMoveToServer(myMove);
+    		recordLatency(receivedAt);
+    		recordOurMove(myMove, receivedAt);
+    		updateGui(myMove);
+
+    		// --todo--
+    		// after you send Moves to server the server will send 
+    		// message GAME_STATE_BOARD, so do not need to update
+    		// our copy of the board
+    		// Update internal board 
+    		board.applyMove(myMove, playerId);
+    		if (ponderer != null) ponderer.start(board);
+
+    	} else {
+    		System.out.println("I go after you...");
+    		// White waits for opponent's first move (GAME_ACTION_MOVE), 
+    		// then a new GAME_STATE_BOARD, then moves.
+    	}
+    }
+
+    // runs on the search thread: apply the opponent's move, search and
+    // send ours.  The GUI and the logging come after the send, so they
+    // never delay the move.
+    private void playTurn(Move oppMove, long receivedAt) {
+        // stop thinking on the opponent's time, we need the AI back
+        if (ponderer != null) ponderer.stop();
+
+        // --todo--
+        // do we need to verify opponents move
+
+        // 1. Apply opponent move to your board
+        board.applyMove(oppMove, opponentId);
+        if (record != null) record.add(oppMove);
+
+        // 2. Check if I have any moves left 
+        if (!board.hasAnyMove(playerId)) {
+            updateGui(oppMove);
+            System.out.println("No moves left -- I Lose.");
+            saveRecord(opponentId);
+            return;
+        }
+
+        // 3. Now generate your move and send it, searching as
+        // deep as the time budget allows
+        Move myMove = searchMove();
+        moveCount++;
+        sendMoveToServer(myMove);
+        recordLatency(receivedAt);
+        recordOurMove(myMove, receivedAt);
+
+        // 4. Update GUI with both moves, then log the opponent's
+        updateGui(oppMove);
+        updateGui(myMove);
+        System.out.println("***** Opposition Move *****");
+        System.out.println("Current Queen: (" + oppMove.qFromRow + "," + oppMove.qFromCol + ")");
+        System.out.println("Next Queen:    (" + oppMove.qToRow + "," + oppMove.qToCol + ")");
+        System.out.println("Arrow:         (" + oppMove.arrowRow + "," + oppMove.arrowCol + ")");
+        System.out.println("***************************");
+
+        // 5. Update internal board 
+        board.applyMove(myMove, playerId);	
+
+        // 6. Check if the opponent has any moves left
+        if (!board.hasAnyMove(opponentId)) {
+            System.out.println("You have no more moves left -- I Win.");
+            saveRecord(playerId);
+            return;
+        }
+
+        // 7. Think about our answers while the opponent moves
+        if (ponderer != null) ponderer.start(board);
+    }
+
+    // log how long it took from receiving a message to sending our move
+    private void recordLatency(long receivedAt) {
+        long ns = System.nanoTime() - receivedAt;
+        latencyTotalNs += ns;
+        latencyMaxNs = Math.max(latencyMaxNs, ns);
+        latencyCount++;
+        System.out.println(String.format("Move sent %d ms after receipt (avg %d ms, max %d ms)",
+                ns / 1_000_000, latencyTotalNs / latencyCount / 1_000_000, latencyMaxNs / 1_000_000));
+    }
+
+    // add our move to the game record with the stats of its search.
+    // Called after the move is sent; the time is receipt to send.
+    private void recordOurMove(Move m, long receivedAt) {
+        if (record == null) return;
+        long ms = (System.nanoTime() - receivedAt) / 1_000_000;
+        record.add(m.pack(), lastDepth, ms, lastNodes);
+    }
+
+    // the game is over: append it to the record file
+    private void saveRecord(int winner) {
+        if (record == null) return;
+        record.setWinner(winner);
+        try (GameRecordWriter w = new GameRecordWriter(Paths.get(RECORD_FILE))) {
+            w.append(record);
+            System.out.println("Game recorded in " + RECORD_FILE);
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Could not record the game: " + e.getMessage());
+        }
+        record = null;
+    }
+
+    // map the opening book, null if the file is missing or unreadable
+    private OpeningBook loadBook() {
+        Path path = Paths.get(BOOK_FILE);
+        if (!Files.exists(path)) {
+            System.out.println("No opening book at " + path);
+            return null;
+        }
+        try {
+            OpeningBook b = OpeningBook.open(path);
+            System.out.println("Opening book: " + b.size() + " positions");
+            return b;
+        } catch (IOException e) {
+            System.out.println("Could not read opening book: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // the book move if the position is in the book, otherwise search
+    // the current board with the selected engine for MOVE_TIME_MS
+    private Move searchMove() {
+        lastDepth = 0;
+        lastNodes = 0;
+        if (book != null) {
+            Move m = book.probe(board, playerId);
+            if (m != null) {
+                System.out.println("Book move");
+                return m;
+            }
+        }
+        if (ponderer != null) {
+            // we guessed the opponent's move and finished our answer
+            Move m = ponderer.replyFor(board);
+            if (m != null) {
+                System.out.println("Pondered move");
+                return m;
+            }
+        }
+        if (USE_MCTS) {
+            Move m = mctsAI.findBestMove(board, MOVE_TIME_MS);
+            lastNodes = mctsAI.getPlayouts();
+            System.out.println("MCTS playouts " + mctsAI.getPlayouts()
+                    + ", tree nodes " + mctsAI.getTreeSize());
+            return m;
+        }
+        Move m = myAI.findBestMoveIterative(board, MOVE_TIME_MS);
+        // one key=value line per move, see SearchStats
+        SearchStats stats = myAI.getSearchStats();
+        lastDepth = stats.getCompletedDepth();
+        lastNodes = stats.getNodes();
+        System.out.println(stats.toLogLine());
+        return m;
+    }
+
     @Override
     public String userName() {
     	return userName;
@@ -534,17 +704,19 @@ public class COSC322Test extends GamePlayer{
 	}
 	
 	
-	private void sendMoveToServerAndGui(Move m) { 
+	private void sendMoveToServer(Move m) { 
 		// Convert back to 1-based indexing for server
-        ArrayList<Integer> myQueenCurr = new ArrayList<>(List.of(m.qFromRow + 1, m.qFromCol + 1));
-        ArrayList<Integer> myQueenNext = new ArrayList<>(List.of(m.qToRow   + 1, m.qToCol   + 1));
-        ArrayList<Integer> myArrow     = new ArrayList<>(List.of(m.arrowRow + 1, m.arrowCol + 1));
-
-		// Send move to server 
-		gameClient.sendMoveMessage(myQueenCurr, myQueenNext, myArrow);
-		
-		// Update server GUI 
-		gamegui.updateGameState(myQueenCurr, myQueenNext, myArrow); 
-		
+		gameClient.sendMoveMessage(
+				new ArrayList<>(List.of(m.qFromRow + 1, m.qFromCol + 1)),
+				new ArrayList<>(List.of(m.qToRow   + 1, m.qToCol   + 1)),
+				new ArrayList<>(List.of(m.arrowRow + 1, m.arrowCol + 1)));
+	}
+
+	// show a move (ours or the opponent's) on the GUI, 1-based indexing
+	private void updateGui(Move m) {
+		gamegui.updateGameState(
+				new ArrayList<>(List.of(m.qFromRow + 1, m.qFromCol + 1)),
+				new ArrayList<>(List.of(m.qToRow   + 1, m.qToCol   + 1)),
+				new ArrayList<>(List.of(m.arrowRow + 1, m.arrowCol + 1)));
 	}
 }//end of class
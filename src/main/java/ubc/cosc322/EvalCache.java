@@ -0,0 +1,53 @@
+package ubc.cosc322;
+
+// Fixed size cache of static evaluations, keyed by the Zobrist key.
+//
+// Leaf positions come up again and again through transpositions, and
+// evaluate() (mobility, constrained queens and the territory BFS) is
+// the most expensive thing the search does per node.  The search table
+// only keeps a leaf as long as no deeper result wants its slot, so the
+// leaf scores get their own table here.
+//
+// Like TranspositionTable it is two primitive arrays allocated once.
+// The cache is lossy: a store always overwrites the slot.  Each slot
+// holds the score and check = key ^ score bits, so a slot written by
+// another position (or torn by another thread) does not verify.
+// The score is from the point of view of the Minimax that owns the
+// cache, so a cache must not be shared between two players.
+public final class EvalCache {
+
+    private final long[] checks;
+    private final double[] scores;
+    private final int mask;
+
+    // create a cache with 2^log2Size slots
+    public EvalCache(int log2Size) {
+        int size = 1 << log2Size;
+        checks = new long[size];
+        scores = new double[size];
+        mask   = size - 1;
+    }
+
+    // wipe the whole cache
+    public void clear() {
+        java.util.Arrays.fill(checks, 0);
+        java.util.Arrays.fill(scores, 0);
+    }
+
+    // the cached score of key, or NaN if it is not in the cache
+    public double probe(long key) {
+        int i = (int) key & mask;
+        double s = scores[i];
+        if ((checks[i] ^ Double.doubleToRawLongBits(s)) != key) {
+            return Double.NaN;
+        }
+        return s;
+    }
+
+    // remember the score of key, replacing whatever was in its slot
+    public void store(long key, double score) {
+        int i = (int) key & mask;
+        scores[i] = score;
+        checks[i] = key ^ Double.doubleToRawLongBits(score);
+    }
+}
@@ -0,0 +1,157 @@
+package ubc.cosc322;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+// The weights of Minimax's evaluation and root move ordering.
+//
+// The defaults are the hand-picked values the engine always used.  A
+// parameter file (written by Tuner, or by hand) overrides any of them:
+// one "name = value" per line, '#' starts a comment, and names that
+// are left out keep their default.
+//
+// The first EVAL_COUNT parameters are the evaluation weights.  The
+// evaluation is linear in them (see Minimax.evalFeatures), which is
+// what lets Tuner fit them by logistic regression on game results.
+// The rest only change the move ordering and are tuned by playing
+// games (SPSA).
+public final class EvalParams {
+
+    // evaluation
+    public static final int MOBILITY = 0;          // per move of mobility difference
+    public static final int TERRITORY = 1;         // per square of queen territory
+    public static final int TRAPPED1 = 2;          // queen with at most 1 move
+    public static final int TRAPPED2 = 3;          // queen with 2 moves
+    public static final int TRAPPED3 = 4;          // queen with 3 moves
+    public static final int KING_TERRITORY = 5;    // per square of king territory
+    public static final int QUEEN_POSITION = 6;    // smooth queen territory (2^-distance)
+    public static final int KING_POSITION = 7;     // smooth king territory (distance difference)
+    public static final int EVAL_COUNT = 8;
+
+    // root move ordering (orderMoves)
+    public static final int QUEEN_CONSTRAINT = 8;  // per move the queen gains
+    public static final int ARROW_IMPACT = 9;      // per move taken from a trapped enemy queen
+    public static final int SPACING1 = 10;         // own queen at distance 1
+    public static final int SPACING2 = 11;         // ... at distance 2
+    public static final int SPACING3 = 12;         // ... at distance 3
+    public static final int SPACING_FAR = 13;      // ... at distance 5 or more
+    public static final int WALL_OPEN = 14;        // walling score factor on an open board
+    public static final int WALL_CLOSED = 15;      // ... once the board is closed
+    public static final int OPEN_MOBILITY = 16;    // total mobility above which the board is open
+    public static final int WALL_OWNED = 17;       // per square of a region only one side touches
+    public static final int WALL_CONTESTED = 18;   // per square and queen of a shared region
+
+    public static final int COUNT = 19;
+
+    private static final String[] NAMES = {
+        "eval.mobility", "eval.territory", "eval.trapped1", "eval.trapped2", "eval.trapped3",
+        "eval.kingTerritory", "eval.queenPosition", "eval.kingPosition",
+        "order.queenConstraint", "order.arrowImpact",
+        "order.spacing1", "order.spacing2", "order.spacing3", "order.spacingFar",
+        "order.wallOpen", "order.wallClosed", "order.openMobility",
+        "order.wallOwned", "order.wallContested",
+    };
+
+    private static final double[] DEFAULTS = {
+        1.0, 0.7, 8, 4, 2,
+        0.2, 1.0, 1.0,
+        1.0, 1.5,
+        -15, -8, -3, 2,
+        1, 2, 40,
+        1.5, 0.1,
+    };
+
+    private final double[] values;
+
+    public EvalParams() {
+        values = DEFAULTS.clone();
+    }
+
+    public EvalParams(EvalParams other) {
+        values = other.values.clone();
+    }
+
+    public double get(int i) {
+        return values[i];
+    }
+
+    public void set(int i, double v) {
+        values[i] = v;
+    }
+
+    public static String name(int i) {
+        return NAMES[i];
+    }
+
+    public static double defaultValue(int i) {
+        return DEFAULTS[i];
+    }
+
+    // index of a parameter name, -1 if there is none
+    public static int indexOf(String name) {
+        return Arrays.asList(NAMES).indexOf(name);
+    }
+
+    // read a parameter file on top of the defaults
+    public static EvalParams load(Path file) throws IOException {
+        EvalParams p = new EvalParams();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n);
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            int eq = line.indexOf('=');
+            int i = (eq < 0) ? -1 : indexOf(line.substring(0, eq).trim());
+            if (i < 0) {
+                throw new IOException(file + " line " + (n + 1) + ": unknown parameter \"" + line + "\"");
+            }
+            try {
+                p.values[i] = Double.parseDouble(line.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException(file + " line " + (n + 1) + ": bad value \"" + line + "\"");
+            }
+        }
+        return p;
+    }
+
+    // the parameters in file if it exists, otherwise the defaults.
+    // A file that cannot be read is reported and the defaults are used.
+    public static EvalParams loadOrDefault(Path file) {
+        if (!Files.exists(file)) return new EvalParams();
+        try {
+            EvalParams p = load(file);
+            System.out.println("Evaluation parameters from " + file);
+            return p;
+        } catch (IOException e) {
+            System.out.println("Could not read " + file + ", using the defaults: " + e.getMessage());
+            return new EvalParams();
+        }
+    }
+
+    public void save(Path file, String comment) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (comment != null) w.write("# " + comment + "\n");
+            for (int i = 0; i < COUNT; i++) {
+                w.write(NAMES[i] + " = " + values[i] + "\n");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < COUNT; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(NAMES[i]).append('=').append(String.format("%.4g", values[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package ubc.cosc322;
+
+import java.nio.ByteBuffer;
+
+// One game in memory, as it is written to a game record file by
+// GameRecordWriter and read back by GameRecordReader.
+//
+// File layout (big endian):
+//   int  MAGIC ("AMZR")
+//   int  VERSION
+//   then one block per game, appended as games finish:
+//     u16  plies
+//     u8   winner (1 black, 2 white, 0 unknown)
+//     u8   flags (FLAG_STATS)
+//     plies x { u8 from, u8 to, u8 arrow }            square indices
+//     with FLAG_STATS, plies x { u8 depth, u16 ms, i32 nodes }
+// Every game starts from the initial position with black to move.
+// The search stats are 0 for moves that were not searched (the
+// opponent's moves, book moves).  ms and nodes saturate instead of
+// wrapping.
+public final class GameRecord {
+
+    public static final int MAGIC = 0x414D5A52;
+    public static final int VERSION = 1;
+
+    static final int FILE_HEADER = 8;
+    static final int GAME_HEADER = 4;
+    static final int MOVE_BYTES = 3;
+    static final int STATS_BYTES = 7;
+
+    static final int FLAG_STATS = 1;
+
+    // a game cannot be longer than the 92 empty squares of the start
+    public static final int MAX_PLIES = 92;
+
+    private final int[] moves = new int[MAX_PLIES];
+    private final int[] depths = new int[MAX_PLIES];
+    private final int[] ms = new int[MAX_PLIES];
+    private final int[] nodes = new int[MAX_PLIES];
+    private int plies;
+    private boolean hasStats;
+    private int winner;
+
+    // a move that was not searched by us
+    public void add(int move) {
+        add(move, 0, 0, 0);
+    }
+
+    public void add(Move move) {
+        add(move.pack());
+    }
+
+    // a searched move with its completed depth, time and node count
+    public void add(int move, int depth, long timeMs, long nodeCount) {
+        if (plies == MAX_PLIES) throw new IllegalStateException("game is too long");
+        moves[plies] = move;
+        depths[plies] = Math.min(depth, 0xFF);
+        ms[plies] = (int) Math.min(timeMs, 0xFFFF);
+        nodes[plies] = (int) Math.min(nodeCount, Integer.MAX_VALUE);
+        if (depth != 0 || timeMs != 0 || nodeCount != 0) hasStats = true;
+        plies++;
+    }
+
+    public void setWinner(int winner) {
+        this.winner = winner;
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public int getPlies() {
+        return plies;
+    }
+
+    // packed move of a ply (see Move.pack)
+    public int getMove(int ply) {
+        return moves[ply];
+    }
+
+    // size of this game's block in the file
+    int encodedSize() {
+        return GAME_HEADER + plies * (MOVE_BYTES + (hasStats ? STATS_BYTES : 0));
+    }
+
+    // write this game's block at the position of out
+    void encode(ByteBuffer out) {
+        out.putShort((short) plies);
+        out.put((byte) winner);
+        out.put((byte) (hasStats ? FLAG_STATS : 0));
+        for (int i = 0; i < plies; i++) {
+            int m = moves[i];
+            out.put((byte) Move.from(m));
+            out.put((byte) Move.to(m));
+            out.put((byte) Move.arrow(m));
+        }
+        if (hasStats) {
+            for (int i = 0; i < plies; i++) {
+                out.put((byte) depths[i]);
+                out.putShort((short) ms[i]);
+                out.putInt(nodes[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ubc.cosc322;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Read-only view of a game record file written by GameRecordWriter,
+// memory mapped like OpeningBook.
+//
+// open() walks the game headers once to find where each game starts;
+// the moves are only read from the mapping when a game is replayed.
+// A cut-off block at the end (a crash while appending) is ignored.
+// Files over 2 GB have to be split, a single mapping cannot be larger.
+//
+// replay() plays a game through Board.applyMove and shows the visitor
+// every position before its move is made.  replayAll() does the same
+// for all games on a ForkJoinPool, each task with its own boards, so
+// the visitor has to be thread safe.
+//
+// usage: GameRecordReader [file] [threads]
+// prints the number of games, results and replay speed.
+public final class GameRecordReader {
+
+    // sees each position of a replayed game.  board is the position
+    // before the move, player the side to move; the board is reused,
+    // copy it to keep it.
+    public interface Visitor {
+        void position(int game, int ply, Board board, int player, int move);
+    }
+
+    private final MappedByteBuffer buf;
+    private final int[] offsets;
+    private final int count;
+
+    private GameRecordReader(MappedByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < GameRecord.FILE_HEADER
+                || buf.getInt(0) != GameRecord.MAGIC || buf.getInt(4) != GameRecord.VERSION) {
+            throw new IOException("not a game record file");
+        }
+
+        int[] found = new int[1024];
+        int n = 0;
+        int pos = GameRecord.FILE_HEADER;
+        int end = buf.capacity();
+        while (pos + GameRecord.GAME_HEADER <= end) {
+            int plies = buf.getShort(pos) & 0xFFFF;
+            boolean stats = (buf.get(pos + 3) & GameRecord.FLAG_STATS) != 0;
+            int size = GameRecord.GAME_HEADER
+                    + plies * (GameRecord.MOVE_BYTES + (stats ? GameRecord.STATS_BYTES : 0));
+            if (plies > GameRecord.MAX_PLIES || pos + size > end) break;
+            if (n == found.length) found = Arrays.copyOf(found, n * 2);
+            found[n++] = pos;
+            pos += size;
+        }
+        offsets = found;
+        count = n;
+    }
+
+    // map the record file.  The mapping stays valid after the channel
+    // is closed.
+    public static GameRecordReader open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is over 2 GB, split it into smaller files");
+            }
+            return new GameRecordReader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public int gameCount() {
+        return count;
+    }
+
+    public int plies(int game) {
+        return buf.getShort(offsets[game]) & 0xFFFF;
+    }
+
+    // 1 black, 2 white, 0 unknown
+    public int winner(int game) {
+        return buf.get(offsets[game] + 2);
+    }
+
+    public boolean hasStats(int game) {
+        return (buf.get(offsets[game] + 3) & GameRecord.FLAG_STATS) != 0;
+    }
+
+    // packed move of a ply (see Move.pack)
+    public int move(int game, int ply) {
+        int p = offsets[game] + GameRecord.GAME_HEADER + ply * GameRecord.MOVE_BYTES;
+        return Move.pack(buf.get(p), buf.get(p + 1), buf.get(p + 2));
+    }
+
+    // search stats of a ply, 0 if the game has none or the move was not searched
+    public int depth(int game, int ply) {
+        int p = statsOffset(game, ply);
+        return (p < 0) ? 0 : buf.get(p) & 0xFF;
+    }
+
+    public int timeMs(int game, int ply) {
+        int p = statsOffset(game, ply);
+        return (p < 0) ? 0 : buf.getShort(p + 1) & 0xFFFF;
+    }
+
+    public int nodes(int game, int ply) {
+        int p = statsOffset(game, ply);
+        return (p < 0) ? 0 : buf.getInt(p + 3);
+    }
+
+    private int statsOffset(int game, int ply) {
+        if (!hasStats(game)) return -1;
+        return offsets[game] + GameRecord.GAME_HEADER + plies(game) * GameRecord.MOVE_BYTES
+                + ply * GameRecord.STATS_BYTES;
+    }
+
+    // replay one game from the start position
+    public void replay(int game, Visitor v) {
+        replay(game, new Board(), v);
+    }
+
+    // replay one game on board, which must be in the start position.
+    // Afterwards board holds the final position.
+    public void replay(int game, Board board, Visitor v) {
+        int plies = plies(game);
+        int p = offsets[game] + GameRecord.GAME_HEADER;
+        int player = 1;
+        for (int ply = 0; ply < plies; ply++, p += GameRecord.MOVE_BYTES) {
+            int from = buf.get(p), to = buf.get(p + 1), arrow = buf.get(p + 2);
+            if (from < 0 || from >= 100 || to < 0 || to >= 100 || arrow < 0 || arrow >= 100) {
+                throw new IllegalStateException("bad square in game " + game + " ply " + ply);
+            }
+            int m = Move.pack(from, to, arrow);
+            if (v != null) v.position(game, ply, board, player, m);
+            board.applyMove(m, player);
+            player = 3 - player;
+        }
+    }
+
+    // replay every game, split into chunks over the pool.  Returns the
+    // number of plies replayed.
+    public long replayAll(ForkJoinPool pool, Visitor v) {
+        int chunks = Math.max(1, Math.min(count, pool.getParallelism() * 8));
+        AtomicLong total = new AtomicLong();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int lo = (int) ((long) count * c / chunks);
+            int hi = (int) ((long) count * (c + 1) / chunks);
+            tasks.add(pool.submit(() -> {
+                long plies = 0;
+                for (int g = lo; g < hi; g++) {
+                    replay(g, new Board(), v);
+                    plies += plies(g);
+                }
+                total.addAndGet(plies);
+            }));
+        }
+        for (ForkJoinTask<?> t : tasks) t.join();
+        return total.get();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "games.rec");
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+                                        : Runtime.getRuntime().availableProcessors();
+
+        GameRecordReader r = open(file);
+        int[] wins = new int[3];
+        for (int g = 0; g < r.gameCount(); g++) wins[r.winner(g)]++;
+        System.out.println(r.gameCount() + " games: black " + wins[1] + ", white " + wins[2]
+                + ", unknown " + wins[0]);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        long plies = r.replayAll(pool, null);
+        long ns = System.nanoTime() - start;
+        pool.shutdown();
+        System.out.println(String.format("replayed %d plies in %.3f s, %.0f plies/s on %d threads",
+                plies, ns / 1e9, plies * 1e9 / Math.max(ns, 1), threads));
+    }
+}
@@ -0,0 +1,63 @@
+package ubc.cosc322;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Appends finished games to a game record file (see GameRecord for
+// the layout).  The file header is written when the file is new or
+// empty, otherwise it is checked and games go on the end.
+//
+// Each game goes out in a single write, so a crash can at worst leave
+// one cut-off block at the end, which the reader ignores.  append is
+// synchronized, the tournament's workers share one writer.
+public final class GameRecordWriter implements Closeable {
+
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocate(GameRecord.GAME_HEADER
+            + GameRecord.MAX_PLIES * (GameRecord.MOVE_BYTES + GameRecord.STATS_BYTES));
+
+    public GameRecordWriter(Path file) throws IOException {
+        if (Files.exists(file) && Files.size(file) > 0) checkHeader(file);
+        ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (ch.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(GameRecord.FILE_HEADER);
+            header.putInt(GameRecord.MAGIC).putInt(GameRecord.VERSION).flip();
+            writeFully(header);
+        }
+    }
+
+    private static void checkHeader(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(GameRecord.FILE_HEADER);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && in.read(header) > 0) {
+                // keep reading
+            }
+        }
+        if (header.hasRemaining()
+                || header.getInt(0) != GameRecord.MAGIC || header.getInt(4) != GameRecord.VERSION) {
+            throw new IOException(file + " is not a game record file");
+        }
+    }
+
+    public synchronized void append(GameRecord game) throws IOException {
+        buf.clear();
+        game.encode(buf);
+        buf.flip();
+        writeFully(buf);
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        ch.close();
+    }
+}
@@ -1,255 +1,946 @@
 package ubc.cosc322;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Minimax {
 
     private final int myId;
     private final int opponentId;
     private int maxDepth;
-    private Map<Long, Double> tt = new HashMap<>();
+
+    // 2^20 slots, about 24 MB, allocated once for the whole game.
+    // Shared by all search threads, see TranspositionTable.
+    private static final int TT_BITS = 20;
+    private final TranspositionTable tt;
+
+    // leaf scores, 2^18 slots (4 MB).  Kept for the whole game, the
+    // static score of a position does not change between moves.
+    private static final int EVAL_CACHE_BITS = 18;
+    private final EvalCache evalCache;
+
+    // most moves searched at a node (reduces branching), and most
+    // arrows per queen destination, so the cap covers several queen
+    // moves instead of the arrows of the first one or two
+    private static final int MAX_BRANCH = 40;
+    private static final int MAX_ARROWS_PER_QUEEN = 5;
+
+    // run the expensive orderMoves heuristics at the root (interior
+    // nodes always use the cheap killer/history ordering)
+    private boolean rootHeuristics = true;
+
+    // weights of the evaluation and the move ordering, see EvalParams
+    private EvalParams params = new EvalParams();
+
+    // Lazy SMP: the main searcher plus (threads - 1) helpers that search
+    // the same root on their own board copies and share the table
+    private int threads = 1;
+    private final Searcher mainSearcher = new Searcher(0);
+    private Searcher[] helpers = new Searcher[0];
+    private ExecutorService helperPool;
+
+    private int completedDepth;
+
+    // System.nanoTime() at which the main searcher gives up, and whether
+    // the last findBestMove was cut short by it
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private volatile long deadline = NO_DEADLINE;
+
+    // set by stopSearch from another thread: the running search (and any
+    // search started before clearStop) returns as soon as it notices
+    private volatile boolean stopRequested;
+    private boolean aborted;
+
+    // nodes between two looks at the clock
+    private static final int CLOCK_CHECK_MASK = 2048 - 1;
+
+    // aspiration window half-width for iterative deepening, widened 4x
+    // on each fail; past ASPIRATION_MAX we use the full window
+    private static final double ASPIRATION_WINDOW = 25;
+    private static final double ASPIRATION_MAX = 1000;
+
+    // scores are doubles, so a "zero" window is (alpha, alpha + NULL_WINDOW)
+    private static final double NULL_WINDOW = 1e-6;
+
+    // score of a fully partitioned board that we win, plus the margin.
+    // Above any evaluation, below a side that has no moves at all.
+    private static final double SETTLED_WIN = 10000;
+
+    // root score of the last runSearch
+    private double lastScore;
+
+    // counters of the last findBestMove / findBestMoveIterative, merged
+    // from all search threads when it returns.  iterationNodes collects
+    // the per-iteration node totals while the search runs.
+    private volatile SearchStats lastStats = new SearchStats();
+    private final long[] iterationNodes = new long[SearchStats.MAX_DEPTH];
+    private long searchStartNs;
 
     public Minimax(int myId, int opponentId, int maxDepth) {
+        this(myId, opponentId, maxDepth, TT_BITS, EVAL_CACHE_BITS);
+    }
+
+    // with smaller tables (log2 of the slot counts), for short helper
+    // searches such as the Ponderer's opponent model
+    public Minimax(int myId, int opponentId, int maxDepth, int ttBits, int evalCacheBits) {
         this.myId = myId;
         this.opponentId = opponentId;
         this.maxDepth = maxDepth;
+        this.tt = new TranspositionTable(ttBits);
+        this.evalCache = new EvalCache(evalCacheBits);
+    }
+
+    // number of search threads, 1 (the default) searches on the
+    // calling thread only
+    public void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        if (threads == this.threads) return;
+        this.threads = threads;
+
+        if (helperPool != null) helperPool.shutdownNow();
+        helperPool = null;
+        helpers = new Searcher[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Searcher(i + 1);
+        }
+        if (helpers.length > 0) {
+            helperPool = Executors.newFixedThreadPool(helpers.length, r -> {
+                Thread t = new Thread(r, "minimax-helper");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // use other evaluation / ordering weights.  Cached leaf scores were
+    // computed with the old ones, so the eval cache is cleared.
+    public void setParams(EvalParams params) {
+        this.params = new EvalParams(params);
+        evalCache.clear();
     }
 
+    public EvalParams getParams() {
+        return new EvalParams(params);
+    }
+
+    // turn the expensive root ordering (queenConstraint, arrowImpact,
+    // spacing and walling heuristics on every root move) on or off.
+    // When off, the root is ordered like interior nodes.
+    public void setRootHeuristics(boolean on) {
+        this.rootHeuristics = on;
+    }
+
+    // iterative deepening with a hard deadline.  The search polls the
+    // clock every few thousand nodes and abandons the current iteration
+    // when time is up.  We then play the best move of that iteration if
+    // at least one root move was fully searched (the previous best is
+    // always searched first), otherwise the move of the last finished
+    // iteration.
     public Move findBestMoveIterative(Board board, long timeLimitMs) {
-        long endTime = System.currentTimeMillis() + timeLimitMs;
+        resetStats();
+        deadline = searchStartNs + timeLimitMs * 1_000_000L;
+        // one age per root search, not per iteration, so the entries
+        // of earlier iterations are not treated as stale
+        newSearch();
         Move bestMove = null;
+        completedDepth = 0;
+
+        double prevScore = 0;
 
-        for (int depth = 1; depth <= 10; depth++) {
-            if (System.currentTimeMillis() >= endTime) break;
+        // nothing to search: the widening below would never settle on
+        // a score, the root value stays at -infinity
+        if (!board.hasAnyMove(myId)) {
+            deadline = NO_DEADLINE;
+            finishStats(0);
+            return null;
+        }
 
-            this.maxDepth = depth;
-            Move move = findBestMove(board);
+        try {
+            iterations:
+            for (int depth = 1; depth <= 10; depth++) {
+                if (stopRequested || System.nanoTime() - deadline >= 0) break;
+
+                this.maxDepth = depth;
+                int move;
+
+                if (depth == 1) {
+                    move = runSearch(board, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                } else {
+                    // aspiration window around the last score, widened
+                    // until the score falls inside it
+                    double delta = ASPIRATION_WINDOW;
+                    while (true) {
+                        double a = prevScore - delta;
+                        double b = prevScore + delta;
+                        if (delta > ASPIRATION_MAX) {
+                            a = Double.NEGATIVE_INFINITY;
+                            b = Double.POSITIVE_INFINITY;
+                        }
+                        move = runSearch(board, depth, a, b);
+                        if (aborted || (lastScore > a && lastScore < b)) break;
+                        // a full window or a score that is not finite
+                        // cannot be improved by widening again
+                        if (Double.isInfinite(a) || !Double.isFinite(lastScore)) break;
+                        // out of time between re-searches: the failed
+                        // window's move is not trusted, keep the last one
+                        if (stopRequested || System.nanoTime() - deadline >= 0) break iterations;
+                        delta *= 4;
+                    }
+                }
 
-            if (move != null) {
-                bestMove = move;
+                if (move != 0) {
+                    bestMove = Move.unpack(move);
+                }
+                if (aborted) break;
+                prevScore = lastScore;
+                completedDepth = depth;
             }
+        } finally {
+            deadline = NO_DEADLINE;
+            finishStats(completedDepth);
         }
 
+        // out of time before a single root move was searched:
+        // any legal move beats losing on time
+        if (bestMove == null) {
+            int[] buf = new int[Board.MAX_MOVES];
+            int n = board.generateMoves(myId, buf);
+            if (n > 0) bestMove = Move.unpack(buf[0]);
+        }
         return bestMove;
     }
 
+    // ask a search running on another thread to stop.  It returns its
+    // best move so far within a few thousand nodes.  Searches started
+    // after this also stop at once, until clearStop is called.
+    public void stopSearch() {
+        stopRequested = true;
+    }
+
+    public void clearStop() {
+        stopRequested = false;
+    }
+
+    // the move the transposition table holds for playerId in this
+    // position (packed, 0 if none or not legal here).  After a search
+    // this is the expected reply along the principal variation.
+    public int hashMove(Board board, int playerId) {
+        TranspositionTable.Entry e = new TranspositionTable.Entry();
+        if (!tt.probe(board.getHash(), e) || e.move == 0) return 0;
+        return board.isLegalMove(e.move, playerId) ? e.move : 0;
+    }
+
+    // deepest iteration finished by the last findBestMoveIterative
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    // nodes visited by all search threads in the last findBestMove
+    public long getNodeCount() {
+        long total = mainSearcher.nodes;
+        for (Searcher h : helpers) total += h.nodes;
+        return total;
+    }
+
+    // statistics of the last findBestMove / findBestMoveIterative over
+    // all search threads and iterations (see SearchStats).  A new
+    // object per search, so it can be kept after the next one starts.
+    public SearchStats getSearchStats() {
+        return lastStats;
+    }
+
+    // leaf evaluations asked for, and how many of them the eval cache
+    // answered, in the last findBestMove / findBestMoveIterative
+    public long getEvalProbes() {
+        return lastStats.getEvalProbes();
+    }
+
+    public long getEvalHits() {
+        return lastStats.getEvalHits();
+    }
 
-    private double queenSpacingPenalty(Board board, Move m, int playerId) {
+    // fraction of leaf evaluations served from the eval cache
+    public double getEvalHitRate() {
+        return lastStats.getEvalHitRate();
+    }
+
+    // start counting for a new findBestMove
+    private void resetStats() {
+        mainSearcher.stats.reset();
+        for (Searcher h : helpers) h.stats.reset();
+        Arrays.fill(iterationNodes, 0);
+        searchStartNs = System.nanoTime();
+    }
+
+    // a new root search: age the table and every thread's history
+    private void newSearch() {
+        tt.newSearch();
+        mainSearcher.ageHistory();
+        for (Searcher h : helpers) h.ageHistory();
+    }
 
+    // merge the per-thread counters once the helpers have finished
+    private void finishStats(int depthDone) {
+        SearchStats merged = new SearchStats();
+        merged.add(mainSearcher.stats);
+        for (Searcher h : helpers) merged.add(h.stats);
+        System.arraycopy(iterationNodes, 0, merged.iterationNodes, 0, iterationNodes.length);
+        merged.elapsedNs = System.nanoTime() - searchStartNs;
+        merged.completedDepth = depthDone;
+        lastStats = merged;
+    }
+
+
+    private double queenSpacingPenalty(Board board, int m, int playerId) {
+
+        // player 1 is black (see Board)
         List<int[]> myQueens = (playerId == 1)
-                ? board.getWhiteQueens()
-                : board.getBlackQueens();
+                ? board.getBlackQueens()
+                : board.getWhiteQueens();
 
-        int newR = m.qToRow;
-        int newC = m.qToCol;
+        int from = Move.from(m);
+        int to   = Move.to(m);
+        int newR = to / Board.SIZE;
+        int newC = to % Board.SIZE;
+        EvalParams p = params;
 
         double score = 0;
 
         for (int[] q : myQueens) {
 
             // skip the queen we are moving
-            if (q[0] == m.qFromRow && q[1] == m.qFromCol) continue;
+            if (q[0] * Board.SIZE + q[1] == from) continue;
 
             int dist = Math.max(Math.abs(q[0] - newR), Math.abs(q[1] - newC));
 
-            // penalties (too close)
-            if (dist <= 1) score -= 15;
-            else if (dist == 2) score -= 8;
-            else if (dist == 3) score -= 3;
+            // penalties (too close, the weights are negative)
+            if (dist <= 1) score += p.get(EvalParams.SPACING1);
+            else if (dist == 2) score += p.get(EvalParams.SPACING2);
+            else if (dist == 3) score += p.get(EvalParams.SPACING3);
 
             // reward (far apart)
-            else if (dist >= 5) score += 2;
+            else if (dist >= 5) score += p.get(EvalParams.SPACING_FAR);
         }
 
         return score;
     }
 
+    // cheap static score of a queen move (from -> to, no arrow): prefer
+    // moves that increase the queen's mobility and keep it away from its
+    // own queens (queenConstraint + queenSpacingPenalty without the arrow
+    // part).  before is the queen's mobility on its current square,
+    // after its mobility on the destination (board.countArrows).
+    private double queenMoveScore(Board board, int queenMove, int before, int after, int playerId) {
+        return (after - before) + queenSpacingPenalty(board, queenMove, playerId);
+    }
+
     public Move findBestMove(Board board) {
-        Board copy = new Board(board);
+        resetStats();
+        newSearch();
+        int best = runSearch(board, maxDepth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        finishStats(aborted ? 0 : maxDepth);
 
-        double alpha = Double.NEGATIVE_INFINITY;
-        double beta  = Double.POSITIVE_INFINITY;
+        // the only Move object the search creates
+        return (best == 0) ? null : Move.unpack(best);
+    }
 
-        double bestValue = Double.NEGATIVE_INFINITY;
-        Move bestMove = null;
+    // search the root with the given window on all threads.
+    // Returns the packed best move and leaves its score in lastScore.
+    private int runSearch(Board board, int depth, double alpha, double beta) {
+        // helpers start first and fill the table while the main
+        // searcher works; odd helpers look one ply deeper
+        List<Future<?>> running = new ArrayList<>();
+        for (Searcher h : helpers) {
+            Board hb = new Board(board);
+            int hDepth = depth + (h.id & 1);
+            h.stop = false;
+            running.add(helperPool.submit(() ->
+                    h.search(hb, hDepth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY)));
+        }
 
-        List<Move> moves = copy.generateAllMoves(myId);
-        orderMoves(copy, moves, myId);  // your existing heuristics
+        mainSearcher.stop = false;
+        int best = mainSearcher.search(new Board(board), depth, alpha, beta);
+        aborted = mainSearcher.stop;
+        lastScore = mainSearcher.rootValue;
+
+        // the main searcher decides, helpers are only there for the table
+        for (Searcher h : helpers) h.stop = true;
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                // a failed helper only costs us its table entries
+            }
+        }
+        iterationNodes[Math.min(depth, SearchStats.MAX_DEPTH - 1)] += getNodeCount();
+        return best;
+    }
 
-        for (Move m : moves) {
-            Board.MoveRecord rec = copy.applyMove(m, myId);
+    // one search thread: its own board, move pickers and buffers.
+    // Helpers (id > 0) are told to stop when the main searcher is done.
+    private final class Searcher {
 
-            double value = minimax(copy, maxDepth - 1, alpha, beta, false);
+        final int id;
+        volatile boolean stop;
+        long nodes;
 
-            copy.undoMove(m, myId, rec);
+        // this thread's counters, merged by finishStats
+        final SearchStats stats = new SearchStats();
 
-            if (value > bestValue) {
-                bestValue = value;
-                bestMove = m;
-            }
+        private final TranspositionTable.Entry ttEntry = new TranspositionTable.Entry();
+        private final TerritoryEvaluator territory = new TerritoryEvaluator();
 
-            alpha = Math.max(alpha, bestValue);
-        }
+        // region classes of the current node.  While the root still has
+        // contested regions, interior nodes only move queens that touch
+        // one, and a node with none left is scored by settledScore.
+        private final PartitionAnalyser partition = new PartitionAnalyser();
+        private boolean usePartition;
 
-        return bestMove;
-    }
+        // root moves are fully generated and ordered with the heuristics
+        // below.  Moves are packed ints (see Move.pack).
+        private final int[] rootMoves = new int[Board.MAX_MOVES];
+        private final double[] rootScores = new double[Board.MAX_MOVES];
 
-    private double minimax(Board board, int depth,
-                           double alpha, double beta,
-                           boolean maximizing) {
+        // the root list is kept between iterations on the same position
+        private long rootKey;
+        private int rootCount;
+        private int rootBest;
+        double rootValue;
 
+        // one staged move picker per ply below the root,
+        // grown only when the depth grows
+        private MovePicker[] pickers = new MovePicker[0];
 
-        long hash = board.computeHash();
+        // killers[ply] = the last two moves that caused a cutoff at ply
+        private int[][] killers = new int[0][2];
 
-        if (tt.containsKey(hash)) {
-            return tt.get(hash);
-        }
+        // history tables per player: queenHistory[p][from * 100 + to] and
+        // arrowHistory[p][to * 100 + arrow], bumped by depth^2 on a cutoff
+        private final int[][] queenHistory = new int[3][100 * 100];
+        private final int[][] arrowHistory = new int[3][100 * 100];
 
-        if (depth == 0) {
-        	// modify the function evaluate to fine tune the heuristics
-        	// for minimax.
-            double val = evaluate(board);
-            tt.put(hash, val);   // store before returning
-            return val;
+        Searcher(int id) {
+            this.id = id;
         }
 
-        int player = maximizing ? myId : opponentId;
-        List<Move> moves = board.generateAllMoves(player);
-
-        if (moves.isEmpty()) {
-            double val = maximizing ? -999999 : 999999;
-            tt.put(hash, val);   // store before returning
-            return val;
-        }
+        // search the root to the given depth with window (alpha, beta),
+        // returns the packed best move (0 if there is none) and leaves its
+        // score in rootValue.  If the search is stopped, the best of the
+        // root moves that were fully searched is returned.
+        int search(Board copy, int depth, double alpha, double beta) {
+            ensurePickers(depth + 1);
+            nodes = 0;
+
+            // once the whole board is partitioned every queen is settled,
+            // then we search normally and let the evaluation fill the regions
+            partition.analyse(copy);
+            usePartition = !partition.isSettled();
+
+            double alphaOrig = alpha;
+            double betaOrig  = beta;
+
+            double bestValue = Double.NEGATIVE_INFINITY;
+            int bestMove = 0;
+            rootValue = bestValue;
+
+            long key = copy.getHash();
+            int[] moves = rootMoves;
+            int n;
+
+            if (key != rootKey || rootCount == 0) {
+                // new root: generate and order, with the full heuristics
+                // if they are switched on
+                int ttMove = tt.probe(key, ttEntry) ? ttEntry.move : 0;
+                long t0 = System.nanoTime();
+                n = copy.generateMoves(myId, moves);
+                if (usePartition) n = contestedOnly(moves, n);
+                long t1 = System.nanoTime();
+                if (rootHeuristics) {
+                    n = orderMoves(copy, moves, rootScores, n, myId, ttMove);  // your existing heuristics
+                } else {
+                    n = orderRootCheap(copy, moves, n, ttMove);
+                }
+                stats.genNs += t1 - t0;
+                stats.orderNs += System.nanoTime() - t1;
+                rootKey = key;
+                rootCount = n;
+            } else {
+                // same root as the last iteration: keep its order but
+                // search the previous best move (the PV) first
+                n = rootCount;
+                for (int i = 1; i < n; i++) {
+                    if (moves[i] == rootBest) {
+                        System.arraycopy(moves, 0, moves, 1, i);
+                        moves[0] = rootBest;
+                        break;
+                    }
+                }
+            }
 
-        orderMoves(board, moves, player);
+            // helpers start on a different root move than the main
+            // searcher, so the threads spread over the tree
+            if (id > 0 && n > 1) {
+                int k = id % n;
+                int tm = moves[0]; moves[0] = moves[k]; moves[k] = tm;
+            }
 
-        if (maximizing) {
-            double best = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                int m = moves[i];
+                copy.applyMove(m, myId);
+
+                // principal variation search: the first move gets the full
+                // window, the rest only have to prove they are not better
+                double value;
+                if (i == 0 || alpha == Double.NEGATIVE_INFINITY) {
+                    value = minimax(copy, depth - 1, alpha, beta, false, 1);
+                } else {
+                    value = minimax(copy, depth - 1, alpha, alpha + NULL_WINDOW, false, 1);
+                    if (!stop && value > alpha && value < beta) {
+                        value = minimax(copy, depth - 1, alpha, beta, false, 1);
+                    }
+                }
 
-            for (Move m : moves) {
-                Board.MoveRecord rec = board.applyMove(m, player);
+                copy.undoMove(m, myId);
+                if (stop) return bestMove;
 
-                double value = minimax(board, depth - 1, alpha, beta, false);  //false not maximizing
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestMove = m;
+                    rootValue = value;
+                }
 
-                board.undoMove(m, player, rec);
+                alpha = Math.max(alpha, bestValue);
+                if (alpha >= beta) break;   // fail high, the window was too low
+            }
 
-                best = Math.max(best, value);
-                alpha = Math.max(alpha, best);
+            rootBest = bestMove;
+            if (bestMove != 0) {
+                int flag;
+                if (bestValue <= alphaOrig) flag = TranspositionTable.UPPER;
+                else if (bestValue >= betaOrig) flag = TranspositionTable.LOWER;
+                else flag = TranspositionTable.EXACT;
+                tt.store(key, depth, flag, bestValue, bestMove);
+                stats.ttStores++;
+            }
+            return bestMove;
+        }
 
-                if (beta <= alpha) break;
+        // make sure there is a move picker and killer slot for every ply
+        private void ensurePickers(int plies) {
+            if (pickers.length >= plies) return;
+            MovePicker[] grown = new MovePicker[plies];
+            int[][] grownKillers = new int[plies][];
+            for (int i = 0; i < plies; i++) {
+                if (i < pickers.length) {
+                    grown[i] = pickers[i];
+                } else {
+                    grown[i] = new MovePicker();
+                    grown[i].setArrowLimit(MAX_ARROWS_PER_QUEEN);
+                }
+                grownKillers[i] = (i < killers.length) ? killers[i] : new int[2];
             }
+            pickers = grown;
+            killers = grownKillers;
+        }
 
-            tt.put(hash, best);
-            return best;
+        // halve the history tables between root searches so old
+        // cutoffs fade
+        void ageHistory() {
+            for (int p = 1; p <= 2; p++) {
+                int[] qh = queenHistory[p];
+                int[] ah = arrowHistory[p];
+                for (int i = 0; i < qh.length; i++) {
+                    qh[i] >>= 1;
+                    ah[i] >>= 1;
+                }
+            }
+        }
 
-        } else {
-            double best = Double.POSITIVE_INFINITY;
+        // a move caused a beta cutoff: remember it as a killer for this
+        // ply and credit its queen move and arrow in the history tables
+        private void recordCutoff(int m, int playerId, int depth, int ply) {
+            int[] k = killers[ply];
+            if (k[0] != m) {
+                k[1] = k[0];
+                k[0] = m;
+            }
+            int bonus = depth * depth;
+            int from = Move.from(m), to = Move.to(m);
+            queenHistory[playerId][from * 100 + to] += bonus;
+            arrowHistory[playerId][to * 100 + Move.arrow(m)] += bonus;
+        }
 
-            for (Move m : moves) {
-                Board.MoveRecord rec = board.applyMove(m, player);
+        // rank the queen moves of a picker before any arrow is generated:
+        // history first, then the cheap static queenMoveScore.  Returns
+        // the number of legal moves, which falls out of the scoring: a
+        // queen move has one move per arrow square from its destination.
+        private int scoreQueenMoves(Board board, MovePicker picker, int playerId) {
+            int[] qh = queenHistory[playerId];
+            int n = picker.queenMoveCount();
+            int legal = 0;
+            int capped = 0;
+            int i = 0;
+            while (i < n) {
+                // moves of the same queen are next to each other, and
+                // their number is the queen's mobility before moving
+                int from = Move.from(picker.queenMove(i));
+                int end = i;
+                while (end < n && Move.from(picker.queenMove(end)) == from) end++;
+                int before = end - i;
+
+                for (int j = i; j < end; j++) {
+                    int qm = picker.queenMove(j);
+                    int after = board.countArrows(from, Move.to(qm));
+                    legal += after;
+                    capped += Math.min(after, MAX_ARROWS_PER_QUEEN);
+                    picker.setQueenScore(j, qh[from * 100 + Move.to(qm)]
+                            + queenMoveScore(board, qm, before, after, playerId));
+                }
+                i = end;
+            }
+            stats.cappedMoves += Math.min(capped, MAX_BRANCH);
+            return legal;
+        }
 
-                double value = minimax(board, depth - 1, alpha, beta, true);  //true maximizing
+        // order the root like an interior node, but over complete moves:
+        // TT move, then history and the static queen move score.
+        // Keeps the best MAX_BRANCH moves, like orderMoves.
+        private int orderRootCheap(Board board, int[] moves, int n, int ttMove) {
+            int[] qh = queenHistory[myId];
+            int[] ah = arrowHistory[myId];
+            double[] scores = rootScores;
+            for (int i = 0; i < n; i++) {
+                int m = moves[i];
+                int from = Move.from(m), to = Move.to(m);
+                // "moving" a queen onto its own square gives its mobility
+                int before = board.countArrows(from, from);
+                scores[i] = qh[from * 100 + to] + ah[to * 100 + Move.arrow(m)]
+                        + queenMoveScore(board, m, before, board.countArrows(from, to), myId);
+                if (m == ttMove) scores[i] = Double.POSITIVE_INFINITY;
+            }
+            return keepBest(moves, scores, n);
+        }
 
-                board.undoMove(m, player, rec);
+        // keep the root moves of queens that touch a contested region
+        private int contestedOnly(int[] moves, int n) {
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (partition.isActive(Move.from(moves[i]))) moves[kept++] = moves[i];
+            }
+            return kept;
+        }
 
-                best = Math.min(best, value);
-                beta = Math.min(beta, best);
+        // score of a node where no region is contested any more: each
+        // side can only fill its own regions, and the side to move runs
+        // out first when both have the same number of moves left.  The
+        // moves left are only known within bounds (see PartitionAnalyser),
+        // so this is a win or loss only if it holds at both ends of them.
+        // Otherwise NaN, and the node is searched like any other.
+        private double settledScore(boolean myMove) {
+            int tempo = myMove ? 0 : 1;
+            int worst = partition.minFillable(myId) - partition.fillable(opponentId) + tempo;
+            if (worst > 0) return SETTLED_WIN + worst;
+            int best = partition.fillable(myId) - partition.minFillable(opponentId) + tempo;
+            if (best <= 0) return -SETTLED_WIN + best;
+            return Double.NaN;
+        }
 
-                if (beta <= alpha) break;
+        // evaluate through the eval cache
+        private double cachedEvaluate(Board board, long hash) {
+            stats.evalProbes++;
+            double val = evalCache.probe(hash);
+            if (!Double.isNaN(val)) {
+                stats.evalHits++;
+                return val;
             }
-            tt.put(hash, best);
-            return best;
+            long t0 = System.nanoTime();
+            val = evaluate(board, territory);
+            stats.evalNs += System.nanoTime() - t0;
+            evalCache.store(hash, val);
+            return val;
         }
-    }
 
-    private int territory(Board board) {
-        int score = 0;
+        private double minimax(Board board, int depth,
+                               double alpha, double beta,
+                               boolean maximizing, int ply) {
 
-        for (int r = 0; r < Board.SIZE; r++) {
-            for (int c = 0; c < Board.SIZE; c++) {
 
-                if (board.get(r, c) != 0) continue;
+            nodes++;
+            // only the main searcher watches the clock, it stops the helpers
+            if (id == 0 && (nodes & CLOCK_CHECK_MASK) == 0
+                    && (stopRequested
+                        || (deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0))) {
+                stop = true;
+            }
+            if (stop) return 0;
+
+            long hash = board.getHash();
+            double alphaOrig = alpha;
+            double betaOrig  = beta;
+            int ttMove = 0;
+
+            // only trust entries searched at least as deep as we need,
+            // and use bounds to narrow the window
+            stats.ttProbes++;
+            if (tt.probe(hash, ttEntry)) {
+                stats.ttHits++;
+                ttMove = ttEntry.move;
+                if (ttEntry.depth >= depth) {
+                    double v = ttEntry.score;
+                    if (ttEntry.flag == TranspositionTable.EXACT) return v;
+                    if (ttEntry.flag == TranspositionTable.LOWER) alpha = Math.max(alpha, v);
+                    else beta = Math.min(beta, v);
+                    if (alpha >= beta) return v;
+                }
+            }
 
-                int myDist  = closestQueenDist(board, r, c, myId);
-                int oppDist = closestQueenDist(board, r, c, opponentId);
+            boolean[] queenFilter = null;
+            if (usePartition && depth > 0) {
+                partition.analyse(board);
+                if (partition.isSettled()) {
+                    double val = settledScore(maximizing);
+                    if (!Double.isNaN(val)) {
+                        tt.store(hash, depth, TranspositionTable.EXACT, val, 0);
+                        stats.ttStores++;
+                        return val;
+                    }
+                    // too close to call: every queen may move
+                } else {
+                    queenFilter = partition.activeQueens();
+                }
+            }
 
-                if (myDist < oppDist) score++;
-                else if (oppDist < myDist) score--;
+            if (depth == 0) {
+            	// modify the function evaluate to fine tune the heuristics
+            	// for minimax.
+                // leaves go to the eval cache, not the search table,
+                // so they do not push out the interior entries
+                return cachedEvaluate(board, hash);
             }
-        }
 
-        return score;
-    }
-    
-    private int closestQueenDist(Board board, int r, int c, int playerId) {
+            int player = maximizing ? myId : opponentId;
+            MovePicker picker = pickers[ply];
+            long t0 = System.nanoTime();
+            picker.init(board, player, ttMove, killers[ply][0], killers[ply][1],
+                    arrowHistory[player], queenFilter);
+            long t1 = System.nanoTime();
+            stats.genNs += t1 - t0;
+
+            if (picker.queenMoveCount() == 0) {
+                double val = maximizing ? -999999 : 999999;
+                tt.store(hash, depth, TranspositionTable.EXACT, val, 0);   // store before returning
+                stats.ttStores++;
+                return val;
+            }
 
-        List<int[]> queens = (playerId == 1)
-                ? board.getWhiteQueens()
-                : board.getBlackQueens();
+            // rank queen moves now, arrows are generated as we reach them
+            int legal = scoreQueenMoves(board, picker, player);
+            stats.orderNs += System.nanoTime() - t1;
+            stats.expanded++;
+            stats.legalMoves += legal;
+
+            double best;
+            int bestMove = 0;
+            int searched = 0;
+            int m;
+
+            if (maximizing) {
+                best = Double.NEGATIVE_INFINITY;
+
+                while (searched < MAX_BRANCH && (m = picker.next()) != 0) {
+                    searched++;
+                    board.applyMove(m, player);
+
+                    // principal variation search, null window after the first move
+                    double value;
+                    if (searched == 1 || alpha == Double.NEGATIVE_INFINITY) {
+                        value = minimax(board, depth - 1, alpha, beta, false, ply + 1);  //false not maximizing
+                    } else {
+                        value = minimax(board, depth - 1, alpha, alpha + NULL_WINDOW, false, ply + 1);
+                        if (!stop && value > alpha && value < beta) {
+                            value = minimax(board, depth - 1, alpha, beta, false, ply + 1);
+                        }
+                    }
 
-        int min = Integer.MAX_VALUE;
+                    board.undoMove(m, player);
+                    if (stop) return 0;
 
-        for (int[] q : queens) {
-            int dist = Math.max(Math.abs(q[0] - r), Math.abs(q[1] - c));
-            min = Math.min(min, dist);
-        }
+                    if (value > best) {
+                        best = value;
+                        bestMove = m;
+                    }
+                    alpha = Math.max(alpha, best);
+
+                    if (beta <= alpha) {
+                        recordCutoff(m, player, depth, ply);
+                        stats.cutoffs++;
+                        if (searched == 1) stats.firstMoveCutoffs++;
+                        break;
+                    }
+                }
+
+            } else {
+                best = Double.POSITIVE_INFINITY;
+
+                while (searched < MAX_BRANCH && (m = picker.next()) != 0) {
+                    searched++;
+                    board.applyMove(m, player);
+
+                    // principal variation search, null window after the first move
+                    double value;
+                    if (searched == 1 || beta == Double.POSITIVE_INFINITY) {
+                        value = minimax(board, depth - 1, alpha, beta, true, ply + 1);  //true maximizing
+                    } else {
+                        value = minimax(board, depth - 1, beta - NULL_WINDOW, beta, true, ply + 1);
+                        if (!stop && value < beta && value > alpha) {
+                            value = minimax(board, depth - 1, alpha, beta, true, ply + 1);
+                        }
+                    }
+
+                    board.undoMove(m, player);
+                    if (stop) return 0;
+
+                    if (value < best) {
+                        best = value;
+                        bestMove = m;
+                    }
+                    beta = Math.min(beta, best);
+
+                    if (beta <= alpha) {
+                        recordCutoff(m, player, depth, ply);
+                        stats.cutoffs++;
+                        if (searched == 1) stats.firstMoveCutoffs++;
+                        break;
+                    }
+                }
+            }
+
+            stats.searchedMoves += searched;
 
-        return min;
+            // bound type relative to the window we were called with
+            int flag;
+            if (best <= alphaOrig) flag = TranspositionTable.UPPER;
+            else if (best >= betaOrig) flag = TranspositionTable.LOWER;
+            else flag = TranspositionTable.EXACT;
+            tt.store(hash, depth, flag, best, bestMove);
+            stats.ttStores++;
+            return best;
+        }
     }
 
-    // Evaluate the terminating node
-    private double evaluate(Board board) {
+    // Evaluate the terminating node.  territory is the calling
+    // thread's evaluator, it holds the BFS buffers.  Package-private
+    // for the benchmarks in src/jmh, like orderMoves.
+    double evaluate(Board board, TerritoryEvaluator territory) {
+        EvalParams p = params;
+
         // mobility difference
         int myMob  = board.mobility(myId);
         int oppMob = board.mobility(opponentId);
-        double score = myMob - oppMob;
+        double score = p.get(EvalParams.MOBILITY) * (myMob - oppMob);
 
         // existing heuristic
         score += constrainedQueenBonus(board);
 
-        // territory
-        score += 0.7 * territory(board);
+        // territory: squares we reach first with queen moves, from
+        // a BFS that respects arrows and blockers
+        territory.compute(board, myId);
+        score += p.get(EvalParams.TERRITORY) * territory.queenTerritory();
+        score += p.get(EvalParams.QUEEN_POSITION) * territory.queenPosition();
+
+        // the king distances cost a second BFS per side, skip it when
+        // both of their weights are off
+        double kingTerritory = p.get(EvalParams.KING_TERRITORY);
+        double kingPosition = p.get(EvalParams.KING_POSITION);
+        if (kingTerritory != 0 || kingPosition != 0) {
+            score += kingTerritory * territory.kingTerritory()
+                   + kingPosition * territory.kingPosition();
+        }
 
         return score;
     }
 
+    // the terms of evaluate before weighting: evaluate is the sum of
+    // features[i] * params.get(i) for i < EvalParams.EVAL_COUNT.
+    // Used by Tuner to fit the weights.
+    void evalFeatures(Board board, TerritoryEvaluator territory, double[] features) {
+        features[EvalParams.MOBILITY] = board.mobility(myId) - board.mobility(opponentId);
+
+        // enemy minus own queens with 1 (or 0), 2 and 3 moves
+        features[EvalParams.TRAPPED1] = 0;
+        features[EvalParams.TRAPPED2] = 0;
+        features[EvalParams.TRAPPED3] = 0;
+        List<int[]> myQueens = (myId == 1) ? board.getBlackQueens() : board.getWhiteQueens();
+        List<int[]> oppQueens = (myId == 1) ? board.getWhiteQueens() : board.getBlackQueens();
+        for (int[] q : myQueens) {
+            int f = trappedFeature(board.queenMobility(q[0] * Board.SIZE + q[1]));
+            if (f >= 0) features[f]--;
+        }
+        for (int[] q : oppQueens) {
+            int f = trappedFeature(board.queenMobility(q[0] * Board.SIZE + q[1]));
+            if (f >= 0) features[f]++;
+        }
+
+        territory.compute(board, myId);
+        features[EvalParams.TERRITORY] = territory.queenTerritory();
+        features[EvalParams.KING_TERRITORY] = territory.kingTerritory();
+        features[EvalParams.QUEEN_POSITION] = territory.queenPosition();
+        features[EvalParams.KING_POSITION] = territory.kingPosition();
+    }
+
+    private static int trappedFeature(int mob) {
+        if (mob <= 1) return EvalParams.TRAPPED1;
+        if (mob == 2) return EvalParams.TRAPPED2;
+        if (mob == 3) return EvalParams.TRAPPED3;
+        return -1;
+    }
+
     /**
      * Queens with fewer moves get higher priority.
      */
-    private int constrainedQueenBonus(Board board) {
+    private double constrainedQueenBonus(Board board) {
 
         int opponent = (myId == 1 ? 2 : 1);
 
+        // player 1 is black (see Board)
         List<int[]> myQueens = (myId == 1)
-                ? board.getWhiteQueens()
-                : board.getBlackQueens();
+                ? board.getBlackQueens()
+                : board.getWhiteQueens();
 
         List<int[]> oppQueens = (opponent == 1)
-                ? board.getWhiteQueens()
-                : board.getBlackQueens();
+                ? board.getBlackQueens()
+                : board.getWhiteQueens();
 
-        int score = 0;
+        double t1 = params.get(EvalParams.TRAPPED1);
+        double t2 = params.get(EvalParams.TRAPPED2);
+        double t3 = params.get(EvalParams.TRAPPED3);
+        double score = 0;
 
         // Penalize constrained friendly queens
         for (int[] q : myQueens) {
-            int mob = board.getLegalQueenMoves(q[0], q[1]).size();
-            if (mob <= 1) score -= 8;   // nearly trapped
-            else if (mob <= 2) score -= 4;
-            else if (mob <= 3) score -= 2;
+            int mob = board.queenMobility(q[0] * Board.SIZE + q[1]);
+            if (mob <= 1) score -= t1;   // nearly trapped
+            else if (mob <= 2) score -= t2;
+            else if (mob <= 3) score -= t3;
         }
 
         // Reward constrained enemy queens
         for (int[] q : oppQueens) {
-            int mob = board.getLegalQueenMoves(q[0], q[1]).size();
-            if (mob <= 1) score += 8;
-            else if (mob <= 2) score += 4;
-            else if (mob <= 3) score += 2;
+            int mob = board.queenMobility(q[0] * Board.SIZE + q[1]);
+            if (mob <= 1) score += t1;
+            else if (mob <= 2) score += t2;
+            else if (mob <= 3) score += t3;
         }
 
         return score;
@@ -260,74 +951,103 @@ public class Minimax {
      * - freeing constrained queens (moderate weight)
      * - arrows that restrict opponent queens (dominant)
      * - arrows that help my queen (small weight)
+     * - the transposition table move (packed, 0 if none) always goes first
+     * Sorts the first n packed moves in place and returns how many to search.
+     * Only used at the root (see setRootHeuristics); deeper plies use a
+     * MovePicker with killer and history ordering.
      */
-    private void orderMoves(Board board, List<Move> moves, int playerId) {
-    	for (Move m : moves) {
-            //Copy of the board so we can simulate moves without affecting the original board state
-            Board copy = new Board(board);
+    int orderMoves(Board board, int[] moves, double[] scores, int n, int playerId, int ttMove) {
+        EvalParams p = params;
+        boolean openBoard = board.mobility(myId) + board.mobility(opponentId) > p.get(EvalParams.OPEN_MOBILITY);
+
+    	for (int i = 0; i < n; i++) {
+            int m = moves[i];
+            // the heuristics below apply and undo the move on board
+            // themselves, so no copy of the board is needed
     		// 1. Constrained queen heuristic
-            int mobility = queenConstraint(copy, m, playerId); 
+            int mobility = queenConstraint(board, m, playerId); 
     		// 1. mobility improvement
-            m.score = 1.0 * mobility;
+            double score = p.get(EvalParams.QUEEN_CONSTRAINT) * mobility;
 
             // 2. arrow impact
-            double arrowScore = arrowImpact(copy, m, playerId);
-            m.score += arrowScore * 1.5;
+            double arrowScore = arrowImpact(board, m, playerId);
+            score += arrowScore * p.get(EvalParams.ARROW_IMPACT);
 
             // 3. Spacing penalts
-            m.score += queenSpacingPenalty(copy, m, playerId);
+            score += queenSpacingPenalty(board, m, playerId);
 
             //Check for walling off potenital
-            double wallingOffScore = evaluateWallingMove(copy, m, playerId);
+            double wallingOffScore = evaluateWallingMove(board, m, playerId);
             
-            if(board.mobility(myId)+board.mobility(opponentId)>40)m.score+=wallingOffScore;
-            else m.score+=(wallingOffScore*2);
+            if(openBoard)score+=wallingOffScore*p.get(EvalParams.WALL_OPEN);
+            else score+=(wallingOffScore*p.get(EvalParams.WALL_CLOSED));
 
             // (optional) small randomness
-            m.score += Math.random() * 0.1;
+            score += ThreadLocalRandom.current().nextDouble() * 0.1;
+
+            if (ttMove != 0 && m == ttMove) score = Double.POSITIVE_INFINITY;
+            scores[i] = score;
     	} 
     	
-    	
-    	moves.sort((a, b) -> Double.compare(b.score, a.score));
+        return keepBest(moves, scores, n);
+    }
 
-        // Keep only best moves (reduces branching)
-        if (moves.size() > 40) {
-            moves.subList(40, moves.size()).clear();
+    // Keep only best moves (reduces branching).  A partial
+    // selection sort puts the best 40 at the front in order.
+    // Returns how many moves were kept.
+    private static int keepBest(int[] moves, double[] scores, int n) {
+        int keep = Math.min(n, MAX_BRANCH);
+        for (int i = 0; i < keep; i++) {
+            int best = i;
+            for (int j = i + 1; j < n; j++) {
+                if (scores[j] > scores[best]) best = j;
+            }
+            if (best != i) {
+                int tm = moves[i]; moves[i] = moves[best]; moves[best] = tm;
+                double ts = scores[i]; scores[i] = scores[best]; scores[best] = ts;
+            }
         }
+        return keep;
     }
     public double evaluateWallingMove(Board board, Move m, int playerID) {
-        if (m.qToRow == m.arrowRow && m.qToCol == m.arrowCol) {
+        return evaluateWallingMove(board, m.pack(), playerID);
+    }
+    private double evaluateWallingMove(Board board, int m, int playerID) {
+        if (Move.to(m) == Move.arrow(m)) {
             return 0; // This is not a valid move, so we ignore it
         }
-        Board.MoveRecord rec = board.applyMove(m, playerID);
-        
-        // This just looks over the entire board saying what arrows are connected 
-        List<Set<Integer>> territories = findConnectedBlocks(board); 
-        
+        board.applyMove(m, playerID);
+
+        // The board keeps its empty regions up to date as moves go on and come off,
+        // so we just read them instead of flood filling the whole thing again
+        RegionTracker regions = board.getRegions();
+        List<int[]> mine = (playerID == 1) ? board.getBlackQueens() : board.getWhiteQueens();
+        List<int[]> theirs = (playerID == 1) ? board.getWhiteQueens() : board.getBlackQueens();
+
+        double owned = params.get(EvalParams.WALL_OWNED);
+        double contested = params.get(EvalParams.WALL_CONTESTED);
         double totalScore = 0;
-        
+
         // Go through all the territories see how they are looking
-        for (Set<Integer> territory : territories) {
-            int myQueens = countQueensInTerritory(board, territory, playerID);
-            int oppQueens = countQueensInTerritory(board, territory, opponentId);
-            int roomSize = territory.size(); // HOW MANY OF BLOCKS IN THIS TERRITORY
+        for (int id = 0; id < regions.maxRegions(); id++) {
+            int roomSize = regions.regionSize(id); // HOW MANY OF BLOCKS IN THIS TERRITORY
+            if (roomSize == 0) continue; // id not in use right now
+            int myQueens = regions.queensTouching(mine, id);
+            int oppQueens = regions.queensTouching(theirs, id);
 
             // This is saying What to do in some cases
             if (myQueens > 0 && oppQueens == 0) {
                 // This is our territory no one else is here
-                totalScore += roomSize * 1.5; 
+                totalScore += roomSize * owned; 
             } else if (oppQueens > 0 && myQueens == 0) {
                 // We aint here this is their territory
-                totalScore -= roomSize * 1.5;
+                totalScore -= roomSize * owned;
             } else {
                 // Contested territory 
-                totalScore += (myQueens - oppQueens) * (roomSize / 10.0); // This is just saying hey what are the chances we win and is the room big enough to fight over
-                //if(totalScore != 0){ // just to see if i need to adjust scoring
-                //    System.out.println(totalScore);
-                //}
+                totalScore += (myQueens - oppQueens) * (roomSize * contested); // This is just saying hey what are the chances we win and is the room big enough to fight over
             }
         }
-        board.undoMove(m, playerID, rec);
+        board.undoMove(m, playerID);
         return totalScore;
     }
     public List<Set<Integer>> findConnectedBlocks(Board board) {
@@ -359,42 +1079,24 @@ public class Minimax {
             }
         }
     }
-    private int countQueensInTerritory(Board board, Set<Integer> territory, int playerID) {
-        int count = 0;
-        List<int[]> queens = (playerID == 1) ? board.getWhiteQueens() : board.getBlackQueens();
-        // This is pretty simple it goes through all the terrtories spots looking for queens
-        for (int[] q : queens) { 
-            for (int dr = -1; dr <= 1; dr++) {
-                for (int dc = -1; dc <= 1; dc++) {
-                    if (dr == 0 && dc == 0) continue;
-                    int nr = q[0] + dr;
-                    int nc = q[1] + dc;
-                    //This checks if the queen is in the set.
-                    if (nr >= 0 && nr < 10 && nc >= 0 && nc < 10 && territory.contains(nr * 10 + nc)) { // Again had some weird out of bounds thing dont know how its possible
-                        count++;
-                        break;
-                    }
-                }
-            }
-        }
-        return count;
-    }
     // -------------------------
     //  QUEEN CONSTRAINT HEURISTIC
     // -------------------------
-    private static int queenConstraint(Board board, Move m, int playerId) {
+    private static int queenConstraint(Board board, int m, int playerId) {
+        int from = Move.from(m);
+        int to   = Move.to(m);
 
         // mobility BEFORE moving
-        int before = board.getLegalQueenMoves(m.qFromRow, m.qFromCol).size();
+        int before = board.countQueenMoves(from);
 
         // simulate queen move (no arrow)
-        Board.MoveRecord rec = board.applyMove(m, playerId);
+        board.applyMove(m, playerId);
 
         // mobility AFTER moving
-        int after = board.getLegalQueenMoves(m.qToRow, m.qToCol).size();
+        int after = board.countQueenMoves(to);
 
         // restore
-        board.undoMove(m, playerId, rec);
+        board.undoMove(m, playerId);
 
         // prefer moves that increase mobility
         return (after - before);
@@ -405,46 +1107,44 @@ public class Minimax {
      * Only reward arrows that reduce mobility of opponent queens
      * that already have ≤ 2 legal moves.
      */
-    private double arrowImpact(Board board, Move m, int playerId) {
+    private double arrowImpact(Board board, int m, int playerId) {
 
         int opponent = (playerId == 1 ? 2 : 1);
 
-        // Use the board’s queen lists instead of scanning the whole grid
+        // Use the board’s queen lists instead of scanning the whole grid.
+        // Player 1 is black (see Board)
         List<int[]> oppQueens = (opponent == 1)
-                ? board.getWhiteQueens()
-                : board.getBlackQueens();
-
-        // Mobility BEFORE placing the arrow
-        int[] before = new int[oppQueens.size()];
+                ? board.getBlackQueens()
+                : board.getWhiteQueens();
+
+        // Mobility BEFORE placing the arrow.  Only queens with at most
+        // 2 moves count: their bit is set in constrained and their count
+        // kept in 2 bits of beforeBits.  With none we can skip the move.
+        int constrained = 0;
+        int beforeBits = 0;
         for (int i = 0; i < oppQueens.size(); i++) {
             int[] q = oppQueens.get(i);
-            before[i] = board.getLegalQueenMoves(q[0], q[1]).size();
+            int before = board.countQueenMoves(q[0] * Board.SIZE + q[1]);
+            if (before > 2) continue;
+            constrained |= 1 << i;
+            beforeBits |= before << (2 * i);
         }
+        if (constrained == 0) return 0;
 
         // Simulate arrow placement
-        Board.MoveRecord rec = board.applyMove(m, playerId);
-
+        board.applyMove(m, playerId);
 
-
-        // Mobility AFTER placing the arrow
-        int[] after = new int[oppQueens.size()];
+        // Compute impact on the constrained queens
+        double impact = 0;
         for (int i = 0; i < oppQueens.size(); i++) {
+            if ((constrained & (1 << i)) == 0) continue;
             int[] q = oppQueens.get(i);
-            after[i] = board.getLegalQueenMoves(q[0], q[1]).size();
+            int before = (beforeBits >>> (2 * i)) & 3;
+            impact = Math.max(impact, before - board.countQueenMoves(q[0] * Board.SIZE + q[1]));
         }
 
         // Undo temporary arrow
-        board.undoMove(m, playerId, rec);
-
-        // Compute impact
-        double impact = 0;
-        for (int i = 0; i < before.length; i++) {
-
-            // Only consider queens that were already constrained
-            if (before[i] > 2) continue;
-
-            impact = Math.max(impact, before[i] - after[i]);
-        }
+        board.undoMove(m, playerId);
 
         return impact;
     }
@@ -0,0 +1,413 @@
+package ubc.cosc322;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Monte Carlo tree search, an alternative to Minimax.
+//
+// Minimax keeps at most 40 moves per node, which throws away most of
+// the ~2000 moves of the opening.  Here every move stays available:
+//   - selection uses UCT on the win rate of each child,
+//   - progressive widening lets a node have about
+//     WIDEN_C * visits^WIDEN_POWER children, so a node first gets a
+//     handful of children and more as it is visited.  A new child is
+//     the best of a few random legal moves (by the mobility the moved
+//     queen keeps), so the tree grows towards sensible moves first,
+//   - a playout makes PLAYOUT_PLIES random moves and then scores the
+//     position with the territory BFS (win, draw or loss for black).
+//
+// The tree lives in a fixed pool of nodes (struct of arrays, indexed
+// by node id), so a search never allocates nodes and memory is bounded
+// by the pool size.  When the pool is full the tree stops growing and
+// the playouts go on from its leaves.
+//
+// Tree parallelism: all threads share the tree.  A thread adds a visit
+// to every node on its path on the way down and only adds the result
+// on the way up, so until then the path looks like a loss (virtual
+// loss) and the other threads spread to other branches.
+public class MonteCarloSearch {
+
+    private final int myId;
+    private final int opponentId;
+
+    // 2^20 nodes, about 24 MB, allocated once
+    private static final int DEFAULT_POOL_BITS = 20;
+
+    // UCT exploration constant (win rates are in 0..1)
+    private static final double UCT_C = 0.7;
+
+    // progressive widening: children allowed = WIDEN_C * visits^WIDEN_POWER
+    private static final double WIDEN_C = 2.0;
+    private static final double WIDEN_POWER = 0.5;
+
+    // random legal moves drawn to pick one new child from
+    private static final int WIDEN_SAMPLES = 6;
+
+    // random plies at the end of a playout before we score it
+    private static final int PLAYOUT_PLIES = 4;
+
+    // results are kept in half points: win 2, draw 1, loss 0
+    private static final int WIN = 2;
+    private static final int DRAW = 1;
+
+    private static final int MAX_PLY = 128;
+
+    // node pool.  move/nextSibling/legal are written before the node is
+    // linked into its parent's child list, the counters are atomic.
+    private final int[] move;
+    private final int[] nextSibling;
+    private final int[] legal;                  // legal moves + 1, 0 = not counted yet
+    private final AtomicIntegerArray firstChild;
+    private final AtomicIntegerArray childCount;
+    private final AtomicIntegerArray visits;
+    private final AtomicIntegerArray wins;      // half points of the side that moved into the node
+    private final AtomicInteger used = new AtomicInteger();
+    private final int capacity;
+
+    private int threads = 1;
+    private final Worker mainWorker = new Worker(0);
+    private Worker[] helpers = new Worker[0];
+    private ExecutorService helperPool;
+
+    private volatile long deadline;
+    private volatile boolean stop;
+
+    public MonteCarloSearch(int myId, int opponentId) {
+        this(myId, opponentId, DEFAULT_POOL_BITS);
+    }
+
+    // poolBits: the tree holds at most 2^poolBits nodes
+    public MonteCarloSearch(int myId, int opponentId, int poolBits) {
+        this.myId = myId;
+        this.opponentId = opponentId;
+        capacity = 1 << poolBits;
+        move = new int[capacity];
+        nextSibling = new int[capacity];
+        legal = new int[capacity];
+        firstChild = new AtomicIntegerArray(capacity);
+        childCount = new AtomicIntegerArray(capacity);
+        visits = new AtomicIntegerArray(capacity);
+        wins = new AtomicIntegerArray(capacity);
+    }
+
+    // number of search threads sharing the tree, 1 (the default)
+    // searches on the calling thread only
+    public void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        if (threads == this.threads) return;
+        this.threads = threads;
+
+        if (helperPool != null) helperPool.shutdownNow();
+        helperPool = null;
+        helpers = new Worker[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Worker(i + 1);
+        }
+        if (helpers.length > 0) {
+            helperPool = Executors.newFixedThreadPool(helpers.length, r -> {
+                Thread t = new Thread(r, "mcts-helper");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // search for timeLimitMs and return the most visited root move,
+    // null if myId has no move
+    public Move findBestMove(Board board, long timeLimitMs) {
+        deadline = System.nanoTime() + timeLimitMs * 1_000_000L;
+        stop = false;
+        resetTree();
+
+        List<Future<?>> running = new ArrayList<>();
+        for (Worker h : helpers) {
+            Board hb = new Board(board);
+            running.add(helperPool.submit(() -> h.run(hb)));
+        }
+        mainWorker.run(new Board(board));
+
+        stop = true;
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                // a failed helper only costs us its playouts
+            }
+        }
+
+        int best = 0, bestVisits = -1;
+        for (int c = firstChild.get(0); c != 0; c = nextSibling[c]) {
+            int v = visits.get(c);
+            if (v > bestVisits) {
+                bestVisits = v;
+                best = move[c];
+            }
+        }
+
+        if (best == 0) {
+            // no time for a single playout, any legal move will do
+            int[] buf = new int[Board.MAX_MOVES];
+            int n = board.generateMoves(myId, buf);
+            return (n > 0) ? Move.unpack(buf[0]) : null;
+        }
+        return Move.unpack(best);
+    }
+
+    // playouts done by all threads in the last findBestMove
+    public long getPlayouts() {
+        long total = mainWorker.playouts;
+        for (Worker h : helpers) total += h.playouts;
+        return total;
+    }
+
+    // nodes in the tree after the last findBestMove
+    public int getTreeSize() {
+        return Math.min(used.get(), capacity);
+    }
+
+    // empty the pool and make node 0 the root.  The other nodes are
+    // cleared by newNode when they are handed out again.
+    private void resetTree() {
+        used.set(0);
+        newNode(0);
+        nextSibling[0] = 0;
+    }
+
+    // take a node from the pool, 0 if it is full (0 is the root,
+    // so it is never a child)
+    private int newNode(int m) {
+        int id = used.getAndIncrement();
+        if (id >= capacity) return 0;
+        move[id] = m;
+        firstChild.set(id, 0);
+        childCount.set(id, 0);
+        visits.set(id, 0);
+        wins.set(id, 0);
+        legal[id] = 0;
+        return id;
+    }
+
+    // one search thread with its own board and buffers.  Nothing is
+    // allocated once the worker exists.
+    private final class Worker {
+
+        final int id;
+        long playouts;
+
+        private final TerritoryEvaluator territory = new TerritoryEvaluator();
+        private final int[] queenMoves = new int[4 * 35];
+        private final int[] arrows = new int[35];
+        private final int[] path = new int[MAX_PLY];
+        private final int[] played = new int[MAX_PLY + PLAYOUT_PLIES];
+        private int playoutEnd;   // size of played after the last playout
+        private long seed;
+
+        Worker(int id) {
+            this.id = id;
+            seed = 0x9E3779B97F4A7C15L * (id + 1);
+        }
+
+        void run(Board board) {
+            playouts = 0;
+            while (!stop) {
+                iterate(board);
+                playouts++;
+                // only the main worker watches the clock
+                if (id == 0 && (playouts & 63) == 0 && System.nanoTime() - deadline >= 0) {
+                    stop = true;
+                }
+            }
+        }
+
+        // one selection / expansion / playout / backup pass
+        private void iterate(Board board) {
+            int node = 0;
+            int depth = 0;
+            int toMove = myId;
+            int nPlayed = 0;
+            path[0] = 0;
+            visits.incrementAndGet(0);
+
+            int result;   // half points for black (player 1)
+            while (true) {
+                if (!board.hasAnyMove(toMove)) {
+                    result = (toMove == 1) ? 0 : WIN;
+                    break;
+                }
+                int child = (depth < MAX_PLY - 1) ? widen(board, node, toMove) : 0;
+                if (child == 0) child = select(node);
+                if (child == 0) {
+                    // nothing in the tree below node yet
+                    result = playout(board, toMove, nPlayed);
+                    nPlayed = playoutEnd;
+                    break;
+                }
+
+                board.applyMove(move[child], toMove);
+                played[nPlayed++] = move[child];
+                int v = visits.incrementAndGet(child);   // virtual loss until the backup
+                path[++depth] = child;
+                node = child;
+                toMove = 3 - toMove;
+
+                // a new leaf: play out from here
+                if (v == 1) {
+                    if (!board.hasAnyMove(toMove)) {
+                        result = (toMove == 1) ? 0 : WIN;
+                    } else {
+                        result = playout(board, toMove, nPlayed);
+                        nPlayed = playoutEnd;
+                    }
+                    break;
+                }
+            }
+
+            // the node at depth d was entered by the player to move at
+            // depth d - 1, which is myId for odd d
+            for (int d = 1; d <= depth; d++) {
+                int mover = (d & 1) == 1 ? myId : opponentId;
+                wins.addAndGet(path[d], mover == 1 ? result : WIN - result);
+            }
+
+            // take everything back, last move first.  The moves
+            // alternate starting with myId at the root.
+            for (int i = nPlayed - 1; i >= 0; i--) {
+                board.undoMove(played[i], (i & 1) == 0 ? myId : opponentId);
+            }
+        }
+
+        // add a child to node if progressive widening allows one more,
+        // returns it (0 if none was added)
+        private int widen(Board board, int node, int toMove) {
+            int n = legal[node] - 1;
+            if (n < 0) {
+                n = countMoves(board, toMove);
+                legal[node] = n + 1;
+            }
+            int allowed = (int) Math.min(n, Math.max(1,
+                    WIDEN_C * Math.pow(visits.get(node), WIDEN_POWER)));
+            int c = childCount.get(node);
+            if (c >= allowed || !childCount.compareAndSet(node, c, c + 1)) return 0;
+
+            int m = pickNewMove(board, node, toMove);
+            if (m == 0) {
+                childCount.decrementAndGet(node);
+                return 0;
+            }
+            int child = newNode(m);
+            if (child == 0) {
+                childCount.decrementAndGet(node);
+                return 0;
+            }
+            int head;
+            do {
+                head = firstChild.get(node);
+                nextSibling[child] = head;
+            } while (!firstChild.compareAndSet(node, head, child));
+            return child;
+        }
+
+        // the best of a few random moves that are not a child of node yet
+        private int pickNewMove(Board board, int node, int toMove) {
+            int best = 0, bestScore = -1;
+            // draws that hit an existing child do not count, up to a
+            // limit for nodes that are nearly fully expanded
+            int samples = 0;
+            for (int tries = 0; tries < 4 * WIDEN_SAMPLES && samples < WIDEN_SAMPLES; tries++) {
+                int m = randomMove(board, toMove);
+                if (m == 0 || isChild(node, m)) continue;
+                samples++;
+                int score = board.countArrows(Move.from(m), Move.to(m));
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = m;
+                }
+            }
+            return best;
+        }
+
+        private boolean isChild(int node, int m) {
+            for (int c = firstChild.get(node); c != 0; c = nextSibling[c]) {
+                if (move[c] == m) return true;
+            }
+            return false;
+        }
+
+        // UCT over the children of node, 0 if it has none
+        private int select(int node) {
+            double logN = Math.log(Math.max(1, visits.get(node)));
+            int best = 0;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = firstChild.get(node); c != 0; c = nextSibling[c]) {
+                int v = visits.get(c);
+                double value = (v == 0) ? Double.POSITIVE_INFINITY
+                        : wins.get(c) / (2.0 * v) + UCT_C * Math.sqrt(logN / v);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        // random moves from here, then the territory BFS decides.
+        // Moves go on the played stack so iterate can undo them.
+        private int playout(Board board, int toMove, int nPlayed) {
+            int result = -1;
+            for (int i = 0; i < PLAYOUT_PLIES; i++) {
+                int m = randomMove(board, toMove);
+                if (m == 0) {
+                    result = (toMove == 1) ? 0 : WIN;
+                    break;
+                }
+                board.applyMove(m, toMove);
+                played[nPlayed++] = m;
+                toMove = 3 - toMove;
+            }
+            playoutEnd = nPlayed;
+            if (result >= 0) return result;
+
+            territory.compute(board, 1);
+            int t = territory.queenTerritory();
+            return (t > 0) ? WIN : (t < 0) ? 0 : DRAW;
+        }
+
+        // a random legal move: a random queen move, then a random arrow
+        // from its destination.  0 if toMove has no moves.
+        private int randomMove(Board board, int toMove) {
+            int n = board.generateQueenMoves(toMove, queenMoves);
+            if (n == 0) return 0;
+            int qm = queenMoves[nextInt(n)];
+            int from = Move.from(qm), to = Move.to(qm);
+            int a = board.generateArrows(from, to, arrows);
+            return Move.pack(from, to, arrows[nextInt(a)]);
+        }
+
+        // number of legal moves of toMove
+        private int countMoves(Board board, int toMove) {
+            int n = board.generateQueenMoves(toMove, queenMoves);
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                total += board.countArrows(Move.from(queenMoves[i]), Move.to(queenMoves[i]));
+            }
+            return total;
+        }
+
+        // xorshift, so the playouts do not share a Random
+        private int nextInt(int bound) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return (int) ((seed >>> 33) % bound);
+        }
+    }
+}
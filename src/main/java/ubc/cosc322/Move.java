@@ -24,4 +24,30 @@ public final class Move {
         this.arrowCol = arrowCol;
         this.score    = 0.0;
     }
+
+    // pack the from, to and arrow squares (r * 10 + c) into one int,
+    // 7 bits each.  The search works on packed moves only and builds
+    // a Move for the move it finally plays.
+    public int pack() {
+        return pack(qFromRow * Board.SIZE + qFromCol,
+                    qToRow   * Board.SIZE + qToCol,
+                    arrowRow * Board.SIZE + arrowCol);
+    }
+
+    public static int pack(int from, int to, int arrow) {
+        return from | (to << 7) | (arrow << 14);
+    }
+
+    // squares of a packed move
+    public static int from(int move)  { return move & 0x7F; }
+    public static int to(int move)    { return (move >>> 7) & 0x7F; }
+    public static int arrow(int move) { return (move >>> 14) & 0x7F; }
+
+    // build a Move from a packed move
+    public static Move unpack(int move) {
+        int from = from(move), to = to(move), arrow = arrow(move);
+        return new Move(from / Board.SIZE, from % Board.SIZE,
+                        to / Board.SIZE,   to % Board.SIZE,
+                        arrow / Board.SIZE, arrow % Board.SIZE);
+    }
 }
@@ -0,0 +1,203 @@
+package ubc.cosc322;
+
+// Staged move generator for one ply of the search.
+//
+// Instead of expanding every queen destination into every arrow up
+// front, the picker
+//   1. yields the transposition table move (if it is still legal),
+//   2. yields the two killer moves of this ply (if they are legal here),
+//   3. generates only the queen moves (from -> to) and lets the caller
+//      score them,
+//   4. walks the queen moves best first and generates the arrows of a
+//      destination only when the search gets there, best arrow first
+//      according to the arrow history table.  With an arrow limit only
+//      the best few arrows of each destination are returned, so a
+//      capped search still sees several queen moves instead of every
+//      arrow of the first one.
+// An early cutoff therefore skips the arrow generation of every queen
+// move that was never reached.
+//
+// Moves are packed ints (see Move.pack).  next() returns 0 when there
+// are no moves left; 0 is never a legal move because from != to.
+public final class MovePicker {
+
+    private static final int STAGE_TT = 0;
+    private static final int STAGE_KILLER1 = 1;
+    private static final int STAGE_KILLER2 = 2;
+    private static final int STAGE_QUEENS = 3;
+
+    private Board board;
+    private int playerId;
+    private int stage;
+
+    // moves handed out before the queen stage, skipped there
+    private int ttMove;
+    private int killer1;
+    private int killer2;
+
+    // arrowHistory[to * 100 + arrow], may be null
+    private int[] arrowHistory;
+
+    // queen moves packed as from | to << 7, and their ordering scores
+    private final int[] queenMoves = new int[4 * 35];
+    private final double[] queenScores = new double[4 * 35];
+    private int queenCount;
+    private int queenIndex;
+
+    // arrows of the queen move currently being walked
+    private final int[] arrows = new int[35];
+    private final int[] arrowScores = new int[35];
+    private int arrowCount;
+    private int arrowIndex;
+    private int arrowsLeft;
+    private int current;
+
+    // most arrows returned per queen destination
+    private int arrowLimit = Integer.MAX_VALUE;
+
+    // start picking moves for playerId on board.  ttMove and the killers
+    // are 0 if there are none.  After init the caller may rank the queen
+    // moves with setQueenScore before the first call to next().
+    public void init(Board board, int playerId, int ttMove,
+                     int killer1, int killer2, int[] arrowHistory) {
+        init(board, playerId, ttMove, killer1, killer2, arrowHistory, null);
+    }
+
+    // as above, but only the queens on squares flagged in queenFilter
+    // move (null means all of them)
+    public void init(Board board, int playerId, int ttMove,
+                     int killer1, int killer2, int[] arrowHistory,
+                     boolean[] queenFilter) {
+        this.board = board;
+        this.playerId = playerId;
+        this.ttMove = ttMove;
+        this.killer1 = killer1;
+        this.killer2 = killer2;
+        this.arrowHistory = arrowHistory;
+        this.stage = STAGE_TT;
+        queenCount = board.generateQueenMoves(playerId, queenMoves);
+        if (queenFilter != null) {
+            // the filter is only read here, the caller may reuse it
+            // as soon as init returns
+            this.ttMove = filtered(this.ttMove, queenFilter);
+            this.killer1 = filtered(this.killer1, queenFilter);
+            this.killer2 = filtered(this.killer2, queenFilter);
+            int kept = 0;
+            for (int i = 0; i < queenCount; i++) {
+                if (queenFilter[Move.from(queenMoves[i])]) queenMoves[kept++] = queenMoves[i];
+            }
+            queenCount = kept;
+        }
+        for (int i = 0; i < queenCount; i++) queenScores[i] = 0;
+        queenIndex = 0;
+        arrowCount = 0;
+        arrowIndex = 0;
+    }
+
+    public void init(Board board, int playerId, int ttMove) {
+        init(board, playerId, ttMove, 0, 0, null);
+    }
+
+    // number of queen moves; 0 means the side to move has no moves
+    public int queenMoveCount() {
+        return queenCount;
+    }
+
+    // the i-th queen move, packed as from | to << 7
+    public int queenMove(int i) {
+        return queenMoves[i];
+    }
+
+    public void setQueenScore(int i, double score) {
+        queenScores[i] = score;
+    }
+
+    // return at most limit arrows for each queen destination (the TT
+    // move and the killers do not count).  Stays set across init.
+    public void setArrowLimit(int limit) {
+        arrowLimit = limit;
+    }
+
+    // the next move to search, or 0 when all moves have been returned.
+    // The early stages fall through to the next one when they have
+    // nothing to return.
+    @SuppressWarnings("fallthrough")
+    public int next() {
+        switch (stage) {
+            case STAGE_TT:
+                stage = STAGE_KILLER1;
+                if (ttMove != 0 && board.isLegalMove(ttMove, playerId)) return ttMove;
+                ttMove = 0;
+                // fall through
+            case STAGE_KILLER1:
+                stage = STAGE_KILLER2;
+                if (killer1 != 0 && killer1 != ttMove && board.isLegalMove(killer1, playerId)) {
+                    return killer1;
+                }
+                killer1 = 0;
+                // fall through
+            case STAGE_KILLER2:
+                stage = STAGE_QUEENS;
+                if (killer2 != 0 && killer2 != ttMove && killer2 != killer1
+                        && board.isLegalMove(killer2, playerId)) {
+                    return killer2;
+                }
+                killer2 = 0;
+                // fall through
+            default:
+                return nextQueenStage();
+        }
+    }
+
+    // m, or 0 if it moves a queen the filter leaves out
+    private static int filtered(int m, boolean[] queenFilter) {
+        int from = Move.from(m);
+        return (from < queenFilter.length && queenFilter[from]) ? m : 0;
+    }
+
+    private int nextQueenStage() {
+        while (true) {
+            while (arrowIndex < arrowCount && arrowsLeft > 0) {
+                // bring the best remaining arrow forward
+                int best = arrowIndex;
+                for (int j = arrowIndex + 1; j < arrowCount; j++) {
+                    if (arrowScores[j] > arrowScores[best]) best = j;
+                }
+                int a = arrows[best];
+                arrows[best] = arrows[arrowIndex];
+                arrowScores[best] = arrowScores[arrowIndex];
+                arrowIndex++;
+
+                int m = current | (a << 14);
+                if (m != ttMove && m != killer1 && m != killer2) {
+                    arrowsLeft--;
+                    return m;
+                }
+            }
+            if (queenIndex >= queenCount) return 0;
+
+            // bring the best remaining queen move forward
+            int best = queenIndex;
+            for (int j = queenIndex + 1; j < queenCount; j++) {
+                if (queenScores[j] > queenScores[best]) best = j;
+            }
+            if (best != queenIndex) {
+                int tm = queenMoves[queenIndex];
+                queenMoves[queenIndex] = queenMoves[best];
+                queenMoves[best] = tm;
+                double ts = queenScores[queenIndex];
+                queenScores[queenIndex] = queenScores[best];
+                queenScores[best] = ts;
+            }
+
+            current = queenMoves[queenIndex++];
+            int to = Move.to(current);
+            arrowCount = board.generateArrows(Move.from(current), to, arrows);
+            arrowIndex = 0;
+            arrowsLeft = arrowLimit;
+            for (int i = 0; i < arrowCount; i++) {
+                arrowScores[i] = (arrowHistory == null) ? 0 : arrowHistory[to * 100 + arrows[i]];
+            }
+        }
+    }
+}
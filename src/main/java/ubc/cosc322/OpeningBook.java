@@ -0,0 +1,104 @@
+package ubc.cosc322;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+// Read-only opening book, memory mapped from a file written by
+// OpeningBookBuilder.
+//
+// File layout (big endian):
+//   int  MAGIC ("AMZB")
+//   int  VERSION
+//   int  count
+//   count entries of { long key, int move }, sorted by key (signed)
+// key is Board.getHash() of the position (it includes the side to
+// move) and move is the packed reply (see Move.pack).
+//
+// A lookup is a binary search straight on the mapped file, so it costs
+// a few microseconds and nothing is read into the heap.
+public final class OpeningBook {
+
+    public static final int MAGIC = 0x414D5A42;
+    public static final int VERSION = 1;
+
+    private static final int HEADER = 12;
+    private static final int ENTRY = 12;
+
+    private final MappedByteBuffer buf;
+    private final int count;
+
+    private OpeningBook(MappedByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("not an opening book");
+        }
+        count = buf.getInt(8);
+        if ((long) HEADER + (long) count * ENTRY > buf.capacity()) {
+            throw new IOException("opening book is truncated");
+        }
+    }
+
+    // map the book file.  The mapping stays valid after the channel
+    // is closed.
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new OpeningBook(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    // number of positions in the book
+    public int size() {
+        return count;
+    }
+
+    // packed book move for the position with this key, 0 if the
+    // position is not in the book
+    public int lookup(long key) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = buf.getLong(HEADER + mid * ENTRY);
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return buf.getInt(HEADER + mid * ENTRY + 8);
+        }
+        return 0;
+    }
+
+    // book move for playerId on board, or null.  The move is checked
+    // against the board, so a key collision can never play an
+    // illegal move.
+    public Move probe(Board board, int playerId) {
+        int m = lookup(board.getHash());
+        if (m == 0 || !board.isLegalMove(m, playerId)) return null;
+        return Move.unpack(m);
+    }
+
+    // write a book with the given entries (key -> packed move)
+    public static void write(Path file, Map<Long, Integer> entries) throws IOException {
+        long[] keys = new long[entries.size()];
+        int i = 0;
+        for (long k : entries.keySet()) keys[i++] = k;
+        Arrays.sort(keys);
+
+        try (OutputStream os = Files.newOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.length);
+            for (long k : keys) {
+                out.writeLong(k);
+                out.writeInt(entries.get(k));
+            }
+        }
+    }
+}
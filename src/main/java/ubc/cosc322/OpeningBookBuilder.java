@@ -0,0 +1,72 @@
+package ubc.cosc322;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Builds an OpeningBook offline from self-play.
+//
+// Each game starts from the initial position.  For the first `plies`
+// moves, every position that is not in the book yet is searched with
+// Minimax for msPerMove, and its best move goes into the book.  Most of
+// the time the game then goes on with that move.  With probability
+// `explore` a random legal move is played instead, so later games cover
+// the side lines an opponent might choose and not only our main line.
+//
+// usage: OpeningBookBuilder [out] [games] [plies] [msPerMove] [threads] [explore]
+// e.g.   mvn exec:java "-Dexec.mainClass=ubc.cosc322.OpeningBookBuilder" "-Dexec.args=opening.book 50 8 20000 8 0.3"
+public class OpeningBookBuilder {
+
+    public static void main(String[] args) throws IOException {
+        Path out = Paths.get(args.length > 0 ? args[0] : "opening.book");
+        int games = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int plies = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+        long ms = (args.length > 3) ? Long.parseLong(args[3]) : 20000;
+        int threads = (args.length > 4) ? Integer.parseInt(args[4])
+                                        : Runtime.getRuntime().availableProcessors();
+        double explore = (args.length > 5) ? Double.parseDouble(args[5]) : 0.3;
+
+        Map<Long, Integer> book = new HashMap<>();
+        Random rnd = new Random(322);
+        int[] buf = new int[Board.MAX_MOVES];
+
+        // one engine per colour, kept for the whole build so their
+        // tables stay warm between games
+        Minimax[] engines = new Minimax[3];
+        for (int p = 1; p <= 2; p++) {
+            engines[p] = new Minimax(p, 3 - p, 2);
+            engines[p].setThreads(threads);
+        }
+
+        for (int g = 0; g < games; g++) {
+            Board board = new Board();
+            int player = 1;
+            for (int ply = 0; ply < plies && board.hasAnyMove(player); ply++) {
+                long key = board.getHash();
+                Integer best = book.get(key);
+                if (best == null) {
+                    Move m = engines[player].findBestMoveIterative(board, ms);
+                    best = m.pack();
+                    book.put(key, best);
+                    System.out.println("game " + g + " ply " + ply + ": depth "
+                            + engines[player].getCompletedDepth() + ", " + book.size() + " positions");
+                }
+
+                int play = best;
+                if (rnd.nextDouble() < explore) {
+                    int n = board.generateMoves(player, buf);
+                    play = buf[rnd.nextInt(n)];
+                }
+                board.applyMove(play, player);
+                player = 3 - player;
+            }
+
+            // write after every game, so a long build can be stopped
+            OpeningBook.write(out, book);
+        }
+        System.out.println("wrote " + book.size() + " positions to " + out);
+    }
+}
@@ -0,0 +1,51 @@
+package ubc.cosc322;
+
+// Compares single-threaded iterative deepening with the Lazy SMP search
+// under the same time budget.  For each test position it prints the
+// depth both searches completed and the nodes they visited.
+//
+// usage: ParallelSearchBench [threads] [msPerPosition]
+// e.g.   mvn exec:java "-Dexec.mainClass=ubc.cosc322.ParallelSearchBench" "-Dexec.args=8 5000"
+public class ParallelSearchBench {
+
+    public static void main(String[] args) {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0])
+                                        : Runtime.getRuntime().availableProcessors();
+        long ms = (args.length > 1) ? Long.parseLong(args[1]) : 5000;
+
+        System.out.println("threads=" + threads + " budget=" + ms + "ms");
+
+        // opening, early and middle game positions reached by a quick
+        // depth 1 self-play from the start position
+        int[] plies = {0, 10, 30};
+        Board board = new Board();
+        int player = 1;
+        int played = 0;
+
+        double sumSingle = 0, sumSmp = 0;
+        for (int target : plies) {
+            while (played < target && board.hasAnyMove(player)) {
+                Minimax quick = new Minimax(player, 3 - player, 1);
+                board.applyMove(quick.findBestMove(board), player);
+                player = 3 - player;
+                played++;
+            }
+
+            Minimax single = new Minimax(player, 3 - player, 1);
+            single.findBestMoveIterative(board, ms);
+
+            Minimax smp = new Minimax(player, 3 - player, 1);
+            smp.setThreads(threads);
+            smp.findBestMoveIterative(board, ms);
+
+            System.out.println("ply " + played
+                    + "  single depth=" + single.getCompletedDepth() + " nodes=" + single.getNodeCount()
+                    + "  smp depth=" + smp.getCompletedDepth() + " nodes=" + smp.getNodeCount());
+            sumSingle += single.getCompletedDepth();
+            sumSmp += smp.getCompletedDepth();
+        }
+
+        System.out.println(String.format("average depth: single %.2f, smp %.2f",
+                sumSingle / plies.length, sumSmp / plies.length));
+    }
+}
@@ -0,0 +1,253 @@
+package ubc.cosc322;
+
+import java.util.List;
+
+// Sorts the empty regions of a board (see RegionTracker) by which
+// queens can still reach them.
+//
+// Queens only move through empty squares, so a queen can only ever
+// reach the regions it touches.  A region is
+//   OWNED     if only one player's queens touch it,
+//   CONTESTED if queens of both players touch it,
+//   DEAD      if no queen touches it (nobody will ever move there).
+// Queens that touch no contested region cannot change the result
+// any more: whatever they do, they can only fill their own regions.
+// The search uses this to branch on contested queens only, and to
+// score a fully partitioned board without searching it.
+//
+// How many moves a player has left on a partitioned board is only
+// known within bounds.  The size of its regions is an upper bound
+// (every move fills a square), but odd shapes leave squares a queen
+// cannot reach before it is stuck.  For the lower bound each queen
+// walks its region one king step at a time, shooting the arrow back
+// into the square it left, so every step is a legal move.  The walk
+// goes to the neighbour with the fewest free neighbours of its own
+// (Warnsdorff's rule), which fills most regions completely.  The
+// walks of one player never share a square, so they can all be
+// played, and their length is a number of moves the player is sure
+// to have.
+//
+// One analyser per search thread; analyse() does not allocate.
+public final class PartitionAnalyser {
+
+    public static final int DEAD = 0;
+    public static final int OWNED_BLACK = 1;   // player 1
+    public static final int OWNED_WHITE = 2;   // player 2
+    public static final int CONTESTED = 3;
+
+    private static final int N = Board.SIZE * Board.SIZE;
+
+    // players touching each region, bit 1 = black, bit 2 = white,
+    // so the value is also the region class above
+    private final int[] touchedBy = new int[N];
+
+    // active[sq] is true for queens that touch a contested region
+    private final boolean[] active = new boolean[N];
+    private final int[] activeCount = new int[3];
+
+    // squares the owner can still fill, per player: at most
+    // fillable, at least minFillable (only set when settled)
+    private final int[] fillable = new int[3];
+    private final int[] minFillable = new int[3];
+    private int contested;
+
+    // squares taken by the walks, stamp[sq] == stampGen
+    private final int[] stamp = new int[N];
+    private int stampGen;
+    private final int[] path = new int[N];
+
+    private RegionTracker regions;
+
+    // classify the regions of board.  The results stay valid until
+    // the board changes.
+    public void analyse(Board board) {
+        regions = board.getRegions();
+        java.util.Arrays.fill(touchedBy, 0);
+        java.util.Arrays.fill(active, false);
+
+        markQueens(board.getBlackQueens(), 1);
+        markQueens(board.getWhiteQueens(), 2);
+
+        fillable[1] = fillable[2] = 0;
+        contested = 0;
+        for (int id = 0; id < regions.maxRegions(); id++) {
+            int size = regions.regionSize(id);
+            if (size == 0) continue;
+            int cls = touchedBy[id];
+            if (cls == CONTESTED) contested++;
+            else if (cls != DEAD) fillable[cls] += size;
+        }
+
+        activeCount[1] = activeQueens(board.getBlackQueens());
+        activeCount[2] = activeQueens(board.getWhiteQueens());
+
+        minFillable[1] = minFillable[2] = 0;
+        if (contested == 0) {
+            // the players' regions are disjoint now, one stamp for both
+            if (++stampGen == 0) {
+                java.util.Arrays.fill(stamp, 0);
+                stampGen = 1;
+            }
+            minFillable[1] = walkAll(board.getBlackQueens());
+            minFillable[2] = walkAll(board.getWhiteQueens());
+        }
+    }
+
+    // moves the queens in the list are sure to have: one walk per queen
+    private int walkAll(List<int[]> queens) {
+        int total = 0;
+        for (int i = 0; i < queens.size(); i++) {
+            int[] q = queens.get(i);
+            total += walk(q[0] * Board.SIZE + q[1]);
+        }
+        return total;
+    }
+
+    // king steps a queen on sq can make through free squares.  The
+    // walk is tried from each free neighbour and the longest one is
+    // kept (its squares stay stamped).
+    private int walk(int sq) {
+        int best = 0, bestStart = -1;
+        int r0 = sq / Board.SIZE, c0 = sq % Board.SIZE;
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                int r = r0 + dr, c = c0 + dc;
+                if (r < 0 || r >= Board.SIZE || c < 0 || c >= Board.SIZE) continue;
+                int t = r * Board.SIZE + c;
+                if (!isFree(t)) continue;
+                int len = walkFrom(t);
+                for (int k = 0; k < len; k++) stamp[path[k]] = 0;
+                if (len > best) {
+                    best = len;
+                    bestStart = t;
+                }
+            }
+        }
+        return (bestStart < 0) ? 0 : walkFrom(bestStart);
+    }
+
+    // walk from the free square start, stepping to the free neighbour
+    // with the fewest free neighbours.  The squares are stamped and
+    // left in path, returns their number.
+    private int walkFrom(int start) {
+        int sq = start;
+        int len = 0;
+        while (sq >= 0) {
+            stamp[sq] = stampGen;
+            path[len++] = sq;
+            int next = -1, nextFree = 9;
+            int r0 = sq / Board.SIZE, c0 = sq % Board.SIZE;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int r = r0 + dr, c = c0 + dc;
+                    if (r < 0 || r >= Board.SIZE || c < 0 || c >= Board.SIZE) continue;
+                    int t = r * Board.SIZE + c;
+                    if (!isFree(t)) continue;
+                    int f = freeNeighbours(t);
+                    if (f < nextFree) {
+                        next = t;
+                        nextFree = f;
+                    }
+                }
+            }
+            sq = next;
+        }
+        return len;
+    }
+
+    private boolean isFree(int sq) {
+        return regions.regionOf(sq) >= 0 && stamp[sq] != stampGen;
+    }
+
+    private int freeNeighbours(int sq) {
+        int r0 = sq / Board.SIZE, c0 = sq % Board.SIZE;
+        int count = 0;
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                if (dr == 0 && dc == 0) continue;
+                int r = r0 + dr, c = c0 + dc;
+                if (r < 0 || r >= Board.SIZE || c < 0 || c >= Board.SIZE) continue;
+                if (isFree(r * Board.SIZE + c)) count++;
+            }
+        }
+        return count;
+    }
+
+    // record which regions the queens of playerId touch
+    private void markQueens(List<int[]> queens, int playerId) {
+        for (int i = 0; i < queens.size(); i++) {
+            int[] q = queens.get(i);
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int r = q[0] + dr, c = q[1] + dc;
+                    if (r < 0 || r >= Board.SIZE || c < 0 || c >= Board.SIZE) continue;
+                    int id = regions.regionOf(r * Board.SIZE + c);
+                    if (id >= 0) touchedBy[id] |= playerId;
+                }
+            }
+        }
+    }
+
+    // flag the queens that touch a contested region, returns how many
+    private int activeQueens(List<int[]> queens) {
+        int count = 0;
+        for (int i = 0; i < queens.size(); i++) {
+            int[] q = queens.get(i);
+            int sq = q[0] * Board.SIZE + q[1];
+            for (int dr = -1; dr <= 1 && !active[sq]; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int r = q[0] + dr, c = q[1] + dc;
+                    if (r < 0 || r >= Board.SIZE || c < 0 || c >= Board.SIZE) continue;
+                    int id = regions.regionOf(r * Board.SIZE + c);
+                    if (id >= 0 && touchedBy[id] == CONTESTED) {
+                        active[sq] = true;
+                        break;
+                    }
+                }
+            }
+            if (active[sq]) count++;
+        }
+        return count;
+    }
+
+    // class of region id (DEAD, OWNED_BLACK, OWNED_WHITE or CONTESTED)
+    public int regionClass(int id) {
+        return touchedBy[id];
+    }
+
+    // number of contested regions; 0 means the board is fully partitioned
+    public int contestedRegions() {
+        return contested;
+    }
+
+    public boolean isSettled() {
+        return contested == 0;
+    }
+
+    // does the queen on sq touch a contested region?
+    public boolean isActive(int sq) {
+        return active[sq];
+    }
+
+    // the active flags by square, for MovePicker
+    public boolean[] activeQueens() {
+        return active;
+    }
+
+    public int activeQueenCount(int playerId) {
+        return activeCount[playerId];
+    }
+
+    // squares playerId can fill in the regions only it can reach.
+    // This is the region size, an upper bound: a few odd shapes leave
+    // squares that a queen can not fill before running out of moves.
+    public int fillable(int playerId) {
+        return fillable[playerId];
+    }
+
+    // moves playerId is sure to have left (see the walks above).
+    // Only valid when the board is settled, 0 otherwise.
+    public int minFillable(int playerId) {
+        return minFillable[playerId];
+    }
+}
@@ -0,0 +1,131 @@
+package ubc.cosc322;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Perft: count the leaf nodes of the full move tree to a fixed depth.
+//
+// The counts only depend on the rules, so they check a move generator
+// (plus applyMove/undoMove) against known values, and the time taken
+// measures raw generation speed.  divide() gives the count below each
+// root move, which narrows a wrong total down to one move.  The root
+// moves are counted in parallel on a ForkJoinPool, each on its own
+// copy of the board.
+//
+// Known counts from the start position (black to move):
+//   depth 1: 2,176
+//   depth 2: 4,307,152
+//
+// usage: Perft [depth] [threads] [list]
+// e.g.   mvn exec:java "-Dexec.mainClass=ubc.cosc322.Perft" "-Dexec.args=3 8"
+// "list" counts with generateAllMoves instead of the packed generator.
+public class Perft {
+
+    // leaf counts from the start position, index = depth
+    public static final long[] START_COUNTS = {1, 2_176, 4_307_152};
+
+    private Perft() {
+    }
+
+    // leaf nodes below board to depth, playerId to move.  Serial,
+    // applies and undoes moves on board (which ends up unchanged).
+    public static long perft(Board board, int playerId, int depth) {
+        return perft(board, playerId, depth, new int[Math.max(depth, 1)][Board.MAX_MOVES]);
+    }
+
+    // bufs[d] holds the moves generated with d plies to go (d - 1 here)
+    private static long perft(Board board, int playerId, int depth, int[][] bufs) {
+        if (depth == 0) return 1;
+        int[] moves = bufs[depth - 1];
+        int n = board.generateMoves(playerId, moves);
+
+        // the last ply only needs the count
+        if (depth == 1) return n;
+
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            board.applyMove(moves[i], playerId);
+            total += perft(board, 3 - playerId, depth - 1, bufs);
+            board.undoMove(moves[i], playerId);
+        }
+        return total;
+    }
+
+    // the same count through the list API (generateAllMoves and the
+    // Move based applyMove/undoMove), to check the two against each other
+    public static long perftList(Board board, int playerId, int depth) {
+        if (depth == 0) return 1;
+        List<Move> moves = board.generateAllMoves(playerId);
+        if (depth == 1) return moves.size();
+
+        long total = 0;
+        for (Move m : moves) {
+            Board.MoveRecord rec = board.applyMove(m, playerId);
+            total += perftList(board, 3 - playerId, depth - 1);
+            board.undoMove(m, playerId, rec);
+        }
+        return total;
+    }
+
+    // leaf nodes below each root move (depth >= 1), in the order of
+    // generateMoves.  The packed root moves are written to rootMoves
+    // (MAX_MOVES long).  With list set the subtrees are counted by
+    // perftList instead of perft.
+    public static long[] divide(Board board, int playerId, int depth,
+                                int[] rootMoves, ForkJoinPool pool, boolean list) {
+        if (depth < 1) throw new IllegalArgumentException("depth must be at least 1");
+        int n = board.generateMoves(playerId, rootMoves);
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int m = rootMoves[i];
+            Board copy = new Board(board);
+            tasks.add(pool.submit(() -> {
+                copy.applyMove(m, playerId);
+                return list ? perftList(copy, 3 - playerId, depth - 1)
+                            : perft(copy, 3 - playerId, depth - 1);
+            }));
+        }
+
+        long[] counts = new long[n];
+        for (int i = 0; i < n; i++) {
+            counts[i] = tasks.get(i).join();
+        }
+        return counts;
+    }
+
+    public static void main(String[] args) {
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+                                        : Runtime.getRuntime().availableProcessors();
+        boolean list = args.length > 2 && args[2].equals("list");
+
+        Board board = new Board();
+        int[] rootMoves = new int[Board.MAX_MOVES];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        long start = System.nanoTime();
+        long[] counts = divide(board, 1, depth, rootMoves, pool, list);
+        long ns = System.nanoTime() - start;
+        pool.shutdown();
+
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            Move m = Move.unpack(rootMoves[i]);
+            System.out.println("(" + m.qFromRow + "," + m.qFromCol + ")->(" + m.qToRow + "," + m.qToCol
+                    + ") x(" + m.arrowRow + "," + m.arrowCol + "): " + counts[i]);
+            total += counts[i];
+        }
+
+        double secs = ns / 1e9;
+        System.out.println(String.format("perft(%d) = %d  in %.3f s, %.0f nodes/s on %d threads%s",
+                depth, total, secs, total / Math.max(secs, 1e-9), threads, list ? " (list API)" : ""));
+        if (depth < START_COUNTS.length) {
+            boolean ok = total == START_COUNTS[depth];
+            System.out.println(ok ? "matches the known count"
+                                  : "MISMATCH, expected " + START_COUNTS[depth]);
+            if (!ok) System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ubc.cosc322;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Thinks on the opponent's time.
+//
+// After we send a move, start() takes a copy of the board and a
+// background thread
+//   1. guesses the opponent's most likely replies: the move our own
+//      search expects (the hash move of the position), then the best
+//      move of a short search from the opponent's side,
+//   2. for each guess in turn, plays it on the copy and searches our
+//      answer, using our own Minimax so its transposition table fills
+//      up for the real search.
+// The guesses share one move time: a tenth for the opponent model and
+// the rest split evenly between the answers, so pondering ends about
+// when the opponent's reply is due.
+// When the opponent's move arrives, stop() ends the pondering.
+// replyFor() then returns the answer to that move if one was fully
+// searched. Otherwise the caller searches as usual and starts with a
+// warm table.
+//
+// The Minimax is shared with the caller, so the caller must not search
+// with it between start() and stop().
+public class Ponderer {
+
+    private final Minimax ai;
+    private final int myId;
+    private final int opponentId;
+    private final long moveTimeMs;
+
+    // short search from the opponent's side, only used to guess moves.
+    // One thread and its own small tables (about 400 KB), so it does
+    // not disturb ours.
+    private static final int MODEL_TT_BITS = 14;
+    private static final int MODEL_EVAL_CACHE_BITS = 12;
+    private final Minimax opponentModel;
+
+    // number of guessed replies we search an answer for
+    private static final int GUESSES = 2;
+
+    // our fully searched answers, by the key of the position after
+    // the opponent's move
+    private final Map<Long, Move> replies = new ConcurrentHashMap<>();
+
+    private Thread thread;
+    private volatile boolean stopped;
+
+    public Ponderer(Minimax ai, int myId, int opponentId, long moveTimeMs) {
+        this.ai = ai;
+        this.myId = myId;
+        this.opponentId = opponentId;
+        this.moveTimeMs = moveTimeMs;
+        this.opponentModel = new Minimax(opponentId, myId, 1, MODEL_TT_BITS, MODEL_EVAL_CACHE_BITS);
+        opponentModel.setParams(ai.getParams());
+    }
+
+    // start pondering on board, the position after our move with the
+    // opponent to move.  Any earlier pondering is stopped first.
+    public void start(Board board) {
+        stop();
+        replies.clear();
+        stopped = false;
+        Board copy = new Board(board);
+        thread = new Thread(() -> ponder(copy), "ponder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // stop pondering and wait for the background thread to finish,
+    // after that the caller may use the Minimax again
+    public void stop() {
+        if (thread == null) return;
+        stopped = true;
+        ai.stopSearch();
+        opponentModel.stopSearch();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        ai.clearStop();
+        opponentModel.clearStop();
+    }
+
+    // our answer to the position on board (after the opponent's move),
+    // or null if it was not among the guesses or not finished in time
+    public Move replyFor(Board board) {
+        Move m = replies.get(board.getHash());
+        if (m == null || !board.isLegalMove(m.pack(), myId)) return null;
+        return m;
+    }
+
+    private void ponder(Board board) {
+        if (!board.hasAnyMove(opponentId)) return;
+
+        long modelMs = Math.max(1, moveTimeMs / 10);
+        long answerMs = Math.max(1, (moveTimeMs - modelMs) / GUESSES);
+
+        int first = ai.hashMove(board, opponentId);
+        if (first != 0) answer(board, first, answerMs);
+        if (stopped) return;
+
+        Move guess = opponentModel.findBestMoveIterative(board, modelMs);
+        if (stopped || guess == null) return;
+        int second = guess.pack();
+        if (second != first) answer(board, second, answerMs);
+    }
+
+    // search our answer to the opponent move m for up to timeMs, keep
+    // it if the search was not cut short
+    private void answer(Board board, int m, long timeMs) {
+        board.applyMove(m, opponentId);
+        try {
+            if (!board.hasAnyMove(myId)) return;
+            Move reply = ai.findBestMoveIterative(board, timeMs);
+            if (!stopped && reply != null) {
+                replies.put(board.getHash(), reply);
+                System.out.println("Pondered reply ready (depth " + ai.getCompletedDepth() + ")");
+            }
+        } finally {
+            board.undoMove(m, opponentId);
+        }
+    }
+}
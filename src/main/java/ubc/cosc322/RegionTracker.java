@@ -0,0 +1,313 @@
+package ubc.cosc322;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Connected empty regions of the board (8-connected), kept up to date
+// while moves are made and unmade.
+//
+// Every empty square carries a region id, occupied squares carry -1.
+// Occupying a square can only split its own region, so we look at the
+// ring of 8 neighbours first: if the neighbours that are still in the
+// region are connected to each other around the ring, nothing can have
+// split and we are done.  Only otherwise do we flood the region.
+// Emptying a square merges the regions around it.
+//
+// Every change of a region id is written to an undo log, and
+// Board.undoMove rolls the log back to the mark taken when the move was
+// made, so undo never floods.
+public final class RegionTracker {
+
+    private static final int N = Board.SIZE * Board.SIZE;
+
+    // neighbour offsets in ring order N, NE, E, SE, S, SW, W, NW
+    private static final int[] RING_DR = {-1, -1, 0, 1, 1, 1, 0, -1};
+    private static final int[] RING_DC = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    // NEIGHBOURS[sq * 8 + i] = square of ring neighbour i, or -1 off the board
+    private static final int[] NEIGHBOURS = new int[N * 8];
+
+    // RING_GROUPS[mask] = number of connected groups among the ring
+    // neighbours present in mask (8-connectivity between neighbours)
+    private static final byte[] RING_GROUPS = new byte[256];
+
+    static {
+        for (int sq = 0; sq < N; sq++) {
+            for (int i = 0; i < 8; i++) {
+                int r = sq / Board.SIZE + RING_DR[i], c = sq % Board.SIZE + RING_DC[i];
+                boolean in = r >= 0 && r < Board.SIZE && c >= 0 && c < Board.SIZE;
+                NEIGHBOURS[sq * 8 + i] = in ? r * Board.SIZE + c : -1;
+            }
+        }
+        for (int mask = 0; mask < 256; mask++) {
+            int seen = 0, groups = 0;
+            for (int i = 0; i < 8; i++) {
+                if ((mask & (1 << i)) == 0 || (seen & (1 << i)) != 0) continue;
+                groups++;
+                // flood over the ring neighbours that touch each other
+                int stack = 1 << i;
+                seen |= 1 << i;
+                while (stack != 0) {
+                    int a = Integer.numberOfTrailingZeros(stack);
+                    stack &= stack - 1;
+                    for (int b = 0; b < 8; b++) {
+                        if ((mask & (1 << b)) == 0 || (seen & (1 << b)) != 0) continue;
+                        int dr = Math.abs(RING_DR[a] - RING_DR[b]);
+                        int dc = Math.abs(RING_DC[a] - RING_DC[b]);
+                        if (dr <= 1 && dc <= 1) {
+                            seen |= 1 << b;
+                            stack |= 1 << b;
+                        }
+                    }
+                }
+            }
+            RING_GROUPS[mask] = (byte) groups;
+        }
+    }
+
+    // region id of every square, -1 if occupied
+    private final int[] regionOf = new int[N];
+    // number of squares per region id; an id with size 0 is free
+    private final int[] size = new int[N];
+
+    // undo log: each entry is sq | (oldRegion + 1) << 7
+    private int[] log = new int[1024];
+    private int logSize;
+    // log position at the start of each move
+    private int[] marks = new int[128];
+    private int markCount;
+
+    // scratch for floods
+    private final int[] queue = new int[N];
+    private final int[] stamp = new int[N];
+    private int stampGen;
+
+    public RegionTracker() {
+        Arrays.fill(regionOf, -1);
+    }
+
+    // copy the regions of other; the undo log starts empty
+    public RegionTracker(RegionTracker other) {
+        System.arraycopy(other.regionOf, 0, regionOf, 0, N);
+        System.arraycopy(other.size, 0, size, 0, N);
+    }
+
+    // recompute all regions from scratch.  empty[sq] is true for empty
+    // squares.  Clears the undo log.
+    public void rebuild(boolean[] empty) {
+        Arrays.fill(regionOf, -1);
+        Arrays.fill(size, 0);
+        logSize = 0;
+        markCount = 0;
+        int next = 0;
+        for (int sq = 0; sq < N; sq++) {
+            if (empty[sq] && regionOf[sq] < 0) {
+                int head = 0, tail = 0;
+                regionOf[sq] = next;
+                queue[tail++] = sq;
+                while (head < tail) {
+                    int s = queue[head++];
+                    size[next]++;
+                    for (int i = 0; i < 8; i++) {
+                        int t = NEIGHBOURS[s * 8 + i];
+                        if (t >= 0 && empty[t] && regionOf[t] < 0) {
+                            regionOf[t] = next;
+                            queue[tail++] = t;
+                        }
+                    }
+                }
+                next++;
+            }
+        }
+    }
+
+    // start a move: later changes can be undone with rollback()
+    public void begin() {
+        if (markCount == marks.length) marks = Arrays.copyOf(marks, marks.length * 2);
+        marks[markCount++] = logSize;
+    }
+
+    // undo every change since the matching begin()
+    public void rollback() {
+        int mark = marks[--markCount];
+        while (logSize > mark) {
+            int e = log[--logSize];
+            int sq = e & 0x7F;
+            int old = (e >>> 7) - 1;
+            int cur = regionOf[sq];
+            if (cur >= 0) size[cur]--;
+            regionOf[sq] = old;
+            if (old >= 0) size[old]++;
+        }
+    }
+
+    // the square sq was empty and now holds a queen or an arrow
+    public void occupy(int sq) {
+        int id = regionOf[sq];
+        if (id < 0) return;
+        relabel(sq, -1);
+
+        // neighbours still in the region, as a ring mask
+        int mask = 0;
+        for (int i = 0; i < 8; i++) {
+            int t = NEIGHBOURS[sq * 8 + i];
+            if (t >= 0 && regionOf[t] == id) mask |= 1 << i;
+        }
+        if (RING_GROUPS[mask] <= 1) return;
+
+        // the ring is broken, but the neighbours are usually still joined
+        // a little further out.  Flood from the first neighbour until it
+        // has reached all the others; only if it cannot has the region
+        // split, and every neighbour it missed starts a new region
+        stampGen++;
+        if (reachesRing(sq, id, mask)) return;
+        for (int i = 0; i < 8; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            int t = NEIGHBOURS[sq * 8 + i];
+            if (stamp[t] != stampGen) flood(t, id, freeId());
+        }
+    }
+
+    // flood region id from the first ring neighbour of sq in mask,
+    // stamping what it reaches.  Returns true (and stops early) once all
+    // the ring neighbours in mask are reached.  When it returns false
+    // the whole part of the region around the first neighbour is stamped.
+    private boolean reachesRing(int sq, int id, int mask) {
+        long ringLo = 0, ringHi = 0;
+        for (int i = 0; i < 8; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            int t = NEIGHBOURS[sq * 8 + i];
+            if (t < 64) ringLo |= 1L << t;
+            else ringHi |= 1L << (t - 64);
+        }
+        int left = Integer.bitCount(mask) - 1;
+
+        int start = NEIGHBOURS[sq * 8 + Integer.numberOfTrailingZeros(mask)];
+        int head = 0, tail = 0;
+        stamp[start] = stampGen;
+        queue[tail++] = start;
+        while (head < tail) {
+            int s = queue[head++];
+            for (int i = 0; i < 8; i++) {
+                int t = NEIGHBOURS[s * 8 + i];
+                if (t >= 0 && regionOf[t] == id && stamp[t] != stampGen) {
+                    stamp[t] = stampGen;
+                    queue[tail++] = t;
+                    long onRing = (t < 64) ? (ringLo >>> t) : (ringHi >>> (t - 64));
+                    if ((onRing & 1) != 0 && --left == 0) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // the square sq held a queen or an arrow and is now empty
+    public void vacate(int sq) {
+        if (regionOf[sq] >= 0) return;
+
+        // the biggest neighbouring region absorbs the others
+        int target = -1;
+        for (int i = 0; i < 8; i++) {
+            int t = NEIGHBOURS[sq * 8 + i];
+            if (t < 0) continue;
+            int id = regionOf[t];
+            if (id >= 0 && (target < 0 || size[id] > size[target])) target = id;
+        }
+        if (target < 0) {
+            relabel(sq, freeId());
+            return;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            int t = NEIGHBOURS[sq * 8 + i];
+            if (t < 0) continue;
+            int id = regionOf[t];
+            if (id >= 0 && id != target) {
+                for (int s = 0; s < N; s++) {
+                    if (regionOf[s] == id) relabel(s, target);
+                }
+            }
+        }
+        relabel(sq, target);
+    }
+
+    // a square changed from value old to value now (0 = empty)
+    public void changed(int sq, int old, int now) {
+        if (old == 0 && now != 0) occupy(sq);
+        else if (old != 0 && now == 0) vacate(sq);
+    }
+
+    // flood the squares of region id reachable from start, stamping them
+    // and moving them to region newId
+    private void flood(int start, int id, int newId) {
+        int head = 0, tail = 0;
+        stamp[start] = stampGen;
+        queue[tail++] = start;
+        while (head < tail) {
+            int s = queue[head++];
+            if (newId != id) relabel(s, newId);
+            for (int i = 0; i < 8; i++) {
+                int t = NEIGHBOURS[s * 8 + i];
+                if (t >= 0 && regionOf[t] == id && stamp[t] != stampGen) {
+                    stamp[t] = stampGen;
+                    queue[tail++] = t;
+                }
+            }
+        }
+    }
+
+    // changes outside of a move (Board.set) are not logged, nothing
+    // can roll them back
+    private void relabel(int sq, int id) {
+        int old = regionOf[sq];
+        if (markCount > 0) {
+            if (logSize == log.length) log = Arrays.copyOf(log, log.length * 2);
+            log[logSize++] = sq | ((old + 1) << 7);
+        }
+        if (old >= 0) size[old]--;
+        regionOf[sq] = id;
+        if (id >= 0) size[id]++;
+    }
+
+    private int freeId() {
+        for (int id = 0; id < N; id++) {
+            if (size[id] == 0) return id;
+        }
+        throw new IllegalStateException("no free region id");
+    }
+
+    // region of an empty square, -1 if the square is occupied
+    public int regionOf(int sq) {
+        return regionOf[sq];
+    }
+
+    // number of empty squares in region id (0 if the id is unused)
+    public int regionSize(int id) {
+        return size[id];
+    }
+
+    // region ids are in 0 .. maxRegions() - 1; skip the ones of size 0
+    public int maxRegions() {
+        return N;
+    }
+
+    // does the queen on square sq touch region id (is one of its
+    // neighbours in the region)?
+    public boolean touches(int sq, int id) {
+        for (int i = 0; i < 8; i++) {
+            int t = NEIGHBOURS[sq * 8 + i];
+            if (t >= 0 && regionOf[t] == id) return true;
+        }
+        return false;
+    }
+
+    // number of queens in the list (each int[]{r, c}) that touch region id
+    public int queensTouching(List<int[]> queens, int id) {
+        int count = 0;
+        for (int i = 0; i < queens.size(); i++) {
+            int[] q = queens.get(i);
+            if (touches(q[0] * Board.SIZE + q[1], id)) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,191 @@
+package ubc.cosc322;
+
+import java.util.Arrays;
+
+// Counters for one Minimax search (a findBestMove or findBestMoveIterative
+// call, all iterations and threads together).
+//
+// Each search thread counts into its own SearchStats with plain longs,
+// no atomics or locks, and Minimax adds them up with add() once the
+// threads are done.  The counters cover the nodes below the root; the
+// root itself is only counted in the iteration totals.
+//
+//   nodes per iteration : nodes of all threads for each depth of
+//                         iterative deepening (aspiration re-searches
+//                         included)
+//   TT                  : probes, hits (key found) and stores
+//   cutoffs             : beta cutoffs per expanded node, and how often
+//                         the first move searched was the one that cut
+//   branching           : legal moves per expanded node, the same after
+//                         the arrows-per-destination and MAX_BRANCH
+//                         caps, and moves actually searched
+//   time                : queen move generation (MovePicker.init), queen
+//                         move ordering and leaf evaluation (cache misses)
+//
+// Arrow generation happens lazily inside the search loop and is not
+// timed separately, it is part of the remaining time.
+public final class SearchStats {
+
+    // iterations go up to depth 10, helpers look one ply deeper
+    public static final int MAX_DEPTH = 12;
+
+    final long[] iterationNodes = new long[MAX_DEPTH];
+
+    long ttProbes;
+    long ttHits;
+    long ttStores;
+
+    long evalProbes;
+    long evalHits;
+
+    // nodes whose moves were generated and that had at least one
+    long expanded;
+    long cutoffs;
+    long firstMoveCutoffs;
+
+    long legalMoves;
+    long cappedMoves;
+    long searchedMoves;
+
+    long genNs;
+    long orderNs;
+    long evalNs;
+
+    // wall time of the whole search and the depth it finished
+    long elapsedNs;
+    int completedDepth;
+
+    void reset() {
+        Arrays.fill(iterationNodes, 0);
+        ttProbes = ttHits = ttStores = 0;
+        evalProbes = evalHits = 0;
+        expanded = cutoffs = firstMoveCutoffs = 0;
+        legalMoves = cappedMoves = searchedMoves = 0;
+        genNs = orderNs = evalNs = 0;
+        elapsedNs = 0;
+        completedDepth = 0;
+    }
+
+    // add the counters of another thread
+    void add(SearchStats o) {
+        for (int i = 0; i < MAX_DEPTH; i++) iterationNodes[i] += o.iterationNodes[i];
+        ttProbes += o.ttProbes;
+        ttHits += o.ttHits;
+        ttStores += o.ttStores;
+        evalProbes += o.evalProbes;
+        evalHits += o.evalHits;
+        expanded += o.expanded;
+        cutoffs += o.cutoffs;
+        firstMoveCutoffs += o.firstMoveCutoffs;
+        legalMoves += o.legalMoves;
+        cappedMoves += o.cappedMoves;
+        searchedMoves += o.searchedMoves;
+        genNs += o.genNs;
+        orderNs += o.orderNs;
+        evalNs += o.evalNs;
+    }
+
+    // nodes of all threads in the iteration to depth (0 if none)
+    public long getIterationNodes(int depth) {
+        return (depth >= 0 && depth < MAX_DEPTH) ? iterationNodes[depth] : 0;
+    }
+
+    public long getNodes() {
+        long total = 0;
+        for (long n : iterationNodes) total += n;
+        return total;
+    }
+
+    public double getNodesPerSecond() {
+        return (elapsedNs == 0) ? 0 : getNodes() * 1e9 / elapsedNs;
+    }
+
+    public long getElapsedNs() { return elapsedNs; }
+    public int getCompletedDepth() { return completedDepth; }
+
+    public long getTtProbes() { return ttProbes; }
+    public long getTtHits() { return ttHits; }
+    public long getTtStores() { return ttStores; }
+
+    public double getTtHitRate() {
+        return ratio(ttHits, ttProbes);
+    }
+
+    public long getEvalProbes() { return evalProbes; }
+    public long getEvalHits() { return evalHits; }
+
+    public double getEvalHitRate() {
+        return ratio(evalHits, evalProbes);
+    }
+
+    public long getExpandedNodes() { return expanded; }
+    public long getCutoffs() { return cutoffs; }
+
+    // fraction of expanded nodes that failed high
+    public double getCutoffRate() {
+        return ratio(cutoffs, expanded);
+    }
+
+    // fraction of the cutoffs made by the first move searched,
+    // a measure of the move ordering
+    public double getFirstMoveCutoffRate() {
+        return ratio(firstMoveCutoffs, cutoffs);
+    }
+
+    // average legal moves of an expanded node
+    public double getBranchingBeforeCap() {
+        return ratio(legalMoves, expanded);
+    }
+
+    // the moves the caps leave: at most MAX_ARROWS_PER_QUEEN arrows per
+    // queen destination, at most MAX_BRANCH moves per node
+    public double getBranchingAfterCap() {
+        return ratio(cappedMoves, expanded);
+    }
+
+    // average moves really searched (less than the cap after cutoffs)
+    public double getBranchingSearched() {
+        return ratio(searchedMoves, expanded);
+    }
+
+    public long getGenerationNs() { return genNs; }
+    public long getOrderingNs() { return orderNs; }
+    public long getEvaluationNs() { return evalNs; }
+
+    private static double ratio(long a, long b) {
+        return (b == 0) ? 0 : (double) a / b;
+    }
+
+    // one line of key=value pairs, for grepping and parsing logs.
+    // Times are in ms, summed over threads (so with several threads
+    // they can add up to more than the elapsed time).
+    public String toLogLine() {
+        StringBuilder sb = new StringBuilder("search");
+        sb.append(" depth=").append(completedDepth);
+        sb.append(" nodes=").append(getNodes());
+        sb.append(" iter=");
+        boolean first = true;
+        for (int d = 1; d < MAX_DEPTH; d++) {
+            if (iterationNodes[d] == 0) continue;
+            if (!first) sb.append(',');
+            sb.append(d).append(':').append(iterationNodes[d]);
+            first = false;
+        }
+        if (first) sb.append('-');
+        sb.append(String.format(" ms=%d nps=%.0f", elapsedNs / 1_000_000, getNodesPerSecond()));
+        sb.append(String.format(" tt_probes=%d tt_hits=%d tt_hit=%.3f tt_stores=%d",
+                ttProbes, ttHits, getTtHitRate(), ttStores));
+        sb.append(String.format(" eval_probes=%d eval_hit=%.3f", evalProbes, getEvalHitRate()));
+        sb.append(String.format(" cut=%.3f first_cut=%.3f", getCutoffRate(), getFirstMoveCutoffRate()));
+        sb.append(String.format(" bf_legal=%.1f bf_capped=%.1f bf_searched=%.2f",
+                getBranchingBeforeCap(), getBranchingAfterCap(), getBranchingSearched()));
+        sb.append(String.format(" gen_ms=%d order_ms=%d eval_ms=%d",
+                genNs / 1_000_000, orderNs / 1_000_000, evalNs / 1_000_000));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toLogLine();
+    }
+}
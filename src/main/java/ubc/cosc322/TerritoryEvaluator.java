@@ -0,0 +1,211 @@
+package ubc.cosc322;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Territory evaluation from real move distances.
+//
+// For each side we run one multi-source BFS from all of its queens to
+// get, for every empty square,
+//   queen distance: the number of queen moves needed to reach it
+//   king distance : the number of one-square steps needed to reach it
+// Arrows and all queens block, so walled-off squares are unreachable.
+//
+// From the four distance maps we derive the usual Amazons features
+// (seen from player "me"):
+//   queenTerritory : empty squares I reach first by queen moves minus
+//                    the ones the opponent reaches first
+//   kingTerritory  : the same with king distances
+//   queenPosition  : sum of 2^-myDist - 2^-oppDist (queen distances),
+//                    a smooth version of queenTerritory
+//   kingPosition   : sum of clamp((oppDist - myDist) / 6, -1, 1)
+//                    (king distances)
+//
+// compute() only runs the queen BFS and counts queenTerritory.  The
+// king distances and the two position sums are worked out the first
+// time they are asked for after a compute, so an evaluation that
+// leaves the king terms out does not pay for the king BFS.
+//
+// All buffers are allocated once, so an evaluator must not be shared
+// between threads.  Each search thread owns one.
+public final class TerritoryEvaluator {
+
+    private static final int N = Board.SIZE * Board.SIZE;
+
+    // distance of a square nobody can reach
+    public static final int UNREACHABLE = 100;
+
+    // square offset of the 8 directions and, per square and direction,
+    // how many steps there are before the edge of the board
+    private static final int[] OFFSET = {-11, -10, -9, -1, 1, 9, 10, 11};
+    private static final int[] STEPS = new int[N * 8];
+
+    // 2^-d for the position features
+    private static final double[] POW2 = new double[UNREACHABLE + 1];
+
+    static {
+        int[] dr = {-1, -1, -1, 0, 0, 1, 1, 1};
+        int[] dc = {-1, 0, 1, -1, 1, -1, 0, 1};
+        for (int sq = 0; sq < N; sq++) {
+            for (int d = 0; d < 8; d++) {
+                int r = sq / Board.SIZE + dr[d], c = sq % Board.SIZE + dc[d];
+                int k = 0;
+                while (r >= 0 && r < Board.SIZE && c >= 0 && c < Board.SIZE) {
+                    k++;
+                    r += dr[d];
+                    c += dc[d];
+                }
+                STEPS[sq * 8 + d] = k;
+            }
+        }
+        for (int d = 0; d <= UNREACHABLE; d++) POW2[d] = Math.pow(2, -d);
+        POW2[UNREACHABLE] = 0;
+    }
+
+    // occupancy snapshot: true if the square holds a queen or an arrow
+    private final boolean[] blocked = new boolean[N];
+
+    // distance maps indexed by playerId (index 0 unused)
+    private final int[][] queenDist = new int[3][N];
+    private final int[][] kingDist  = new int[3][N];
+
+    private final int[] queue = new int[N];
+
+    // queen squares of the last compute, indexed by playerId, so the
+    // king BFS can run later without the board
+    private final int[][] queenSq = new int[3][N];
+    private final int[] queenCount = new int[3];
+
+    private int me;
+    private int queenTerritory;
+    private int kingTerritory;
+    private double queenPosition;
+    private double kingPosition;
+
+    // which of the on-demand parts are up to date for the last compute
+    private boolean queenPositionDone;
+    private boolean kingDone;
+
+    // compute the queen distance maps and queenTerritory for board,
+    // from the point of view of player me
+    public void compute(Board board, int me) {
+        this.me = me;
+        int opp = 3 - me;
+
+        for (int r = 0; r < Board.SIZE; r++) {
+            for (int c = 0; c < Board.SIZE; c++) {
+                blocked[r * Board.SIZE + c] = board.get(r, c) != 0;
+            }
+        }
+
+        for (int p = 1; p <= 2; p++) {
+            List<int[]> queens = (p == 1) ? board.getBlackQueens() : board.getWhiteQueens();
+            int n = queens.size();
+            for (int i = 0; i < n; i++) {
+                int[] q = queens.get(i);
+                queenSq[p][i] = q[0] * Board.SIZE + q[1];
+            }
+            queenCount[p] = n;
+            bfs(p, queenDist[p], true);
+        }
+        queenPositionDone = false;
+        kingDone = false;
+
+        int[] myQ = queenDist[me], oppQ = queenDist[opp];
+        int tq = 0;
+        for (int sq = 0; sq < N; sq++) {
+            if (blocked[sq]) continue;
+            if (myQ[sq] < oppQ[sq]) tq++;
+            else if (oppQ[sq] < myQ[sq]) tq--;
+        }
+        queenTerritory = tq;
+    }
+
+    private void computeQueenPosition() {
+        int[] myQ = queenDist[me], oppQ = queenDist[3 - me];
+        double pq = 0;
+        for (int sq = 0; sq < N; sq++) {
+            if (!blocked[sq]) pq += POW2[myQ[sq]] - POW2[oppQ[sq]];
+        }
+        queenPosition = pq;
+        queenPositionDone = true;
+    }
+
+    private void computeKing() {
+        bfs(1, kingDist[1], false);
+        bfs(2, kingDist[2], false);
+
+        int[] myK = kingDist[me], oppK = kingDist[3 - me];
+        int tk = 0;
+        double pk = 0;
+        for (int sq = 0; sq < N; sq++) {
+            if (blocked[sq]) continue;
+            int ka = myK[sq], kb = oppK[sq];
+            if (ka < kb) tk++;
+            else if (kb < ka) tk--;
+            if (ka != kb) {
+                pk += Math.max(-1.0, Math.min(1.0, (kb - ka) / 6.0));
+            }
+        }
+        kingTerritory = tk;
+        kingPosition = pk;
+        kingDone = true;
+    }
+
+    // multi-source BFS from all queens of player p.  With slide set,
+    // one step is a queen move (any distance along a line), otherwise
+    // a single king step.
+    private void bfs(int p, int[] dist, boolean slide) {
+        Arrays.fill(dist, UNREACHABLE);
+        int head = 0, tail = 0;
+        for (int i = 0; i < queenCount[p]; i++) {
+            int sq = queenSq[p][i];
+            dist[sq] = 0;
+            queue[tail++] = sq;
+        }
+
+        while (head < tail) {
+            int s = queue[head++];
+            int nd = dist[s] + 1;
+            for (int d = 0; d < 8; d++) {
+                int steps = slide ? STEPS[s * 8 + d] : Math.min(1, STEPS[s * 8 + d]);
+                int t = s;
+                for (int k = 0; k < steps; k++) {
+                    t += OFFSET[d];
+                    if (blocked[t]) break;
+                    // keep sliding past squares that were reached earlier,
+                    // there may be new ones behind them
+                    if (dist[t] == UNREACHABLE) {
+                        dist[t] = nd;
+                        queue[tail++] = t;
+                    }
+                }
+            }
+        }
+    }
+
+    public int queenTerritory() { return queenTerritory; }
+
+    public int kingTerritory() {
+        if (!kingDone) computeKing();
+        return kingTerritory;
+    }
+
+    public double queenPosition() {
+        if (!queenPositionDone) computeQueenPosition();
+        return queenPosition;
+    }
+
+    public double kingPosition() {
+        if (!kingDone) computeKing();
+        return kingPosition;
+    }
+
+    // distance maps of the last compute, indexed by square r * 10 + c
+    public int queenDistance(int playerId, int sq) { return queenDist[playerId][sq]; }
+
+    public int kingDistance(int playerId, int sq) {
+        if (!kingDone) computeKing();
+        return kingDist[playerId][sq];
+    }
+}
@@ -0,0 +1,349 @@
+package ubc.cosc322;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Headless engine-vs-engine match for checking that a change is an
+// improvement, without the GUI or the server.
+//
+// Engine A plays engine B for up to `games` games, several at once (one
+// game per worker thread, each engine searching on that thread only).
+// Games come in pairs: both start from the same random opening of
+// `openingPlies` plies, with the colours swapped in the second one, so
+// a lopsided opening does not favour either engine.
+//
+// After every game the match is tested with a sequential probability
+// ratio test (SPRT): H0 "A is elo0 stronger than B" against H1 "A is
+// elo1 stronger".  Once the log likelihood ratio leaves the bounds for
+// alpha = beta = 0.05 no new games are started.  Amazons has no draws,
+// so the test works on wins and losses only.
+//
+// Engines: "minimax" (full root heuristics), "cheap" (minimax with the
+// cheap root ordering) and "mcts".  "minimax:file" and "cheap:file" use
+// the weights in an EvalParams file, e.g. minimax:tuned.params.
+//
+// With a records file every game is appended to it (see GameRecord),
+// with the depth, time and nodes of each searched move.
+//
+// usage: Tournament [engineA] [engineB] [games] [msPerMove] [workers] [openingPlies] [elo0] [elo1] [records]
+// e.g.   mvn exec:java "-Dexec.mainClass=ubc.cosc322.Tournament" "-Dexec.args=minimax cheap 400 500 8 4 0 20 games.rec"
+public class Tournament {
+
+    private static final double ALPHA = 0.05;
+    private static final double BETA = 0.05;
+
+    // a side that needs longer than this many times its move time
+    // is reported, the move still counts
+    private static final long SLOW_FACTOR = 2;
+
+    // one engine configuration playing one colour in one game
+    interface Engine {
+        Move move(Board board, long ms);
+
+        // nodes (or playouts) of the last move
+        long nodes();
+
+        // depth the last move was searched to, 0 if that means nothing
+        int depth();
+    }
+
+    static Engine create(String name, int playerId) {
+        int colon = name.indexOf(':');
+        String kind = (colon < 0) ? name : name.substring(0, colon);
+        switch (kind) {
+            case "minimax":
+            case "cheap": {
+                Minimax ai = new Minimax(playerId, 3 - playerId, 2);
+                ai.setRootHeuristics(kind.equals("minimax"));
+                if (colon >= 0) ai.setParams(loadParams(name.substring(colon + 1)));
+                return new Engine() {
+                    public Move move(Board board, long ms) { return ai.findBestMoveIterative(board, ms); }
+                    public long nodes() { return ai.getSearchStats().getNodes(); }
+                    public int depth() { return ai.getSearchStats().getCompletedDepth(); }
+                };
+            }
+            case "mcts": {
+                MonteCarloSearch ai = new MonteCarloSearch(playerId, 3 - playerId);
+                return new Engine() {
+                    public Move move(Board board, long ms) { return ai.findBestMove(board, ms); }
+                    public long nodes() { return ai.getPlayouts(); }
+                    public int depth() { return 0; }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown engine " + name);
+        }
+    }
+
+    private static EvalParams loadParams(String file) {
+        try {
+            return EvalParams.load(Paths.get(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read parameters: " + e.getMessage());
+        }
+    }
+
+    // totals of one engine over the match, shared by the workers
+    static final class Side {
+        final String name;
+        int wins;
+        int forfeits;
+        private final List<Long> moveMs = new ArrayList<>();
+        private long nodes;
+
+        Side(String name) {
+            this.name = name;
+        }
+
+        synchronized void recordMove(long ms, long n) {
+            moveMs.add(ms);
+            nodes += n;
+        }
+
+        // "p50/p90/p99/max" move times in ms, and average nodes per move
+        synchronized String summary() {
+            if (moveMs.isEmpty()) return name + ": no moves";
+            List<Long> sorted = new ArrayList<>(moveMs);
+            Collections.sort(sorted);
+            long totalMs = 0;
+            for (long t : sorted) totalMs += t;
+            return String.format("%s: %d moves, ms p50=%d p90=%d p99=%d max=%d, nodes/move=%d, nps=%.0f",
+                    name, sorted.size(), percentile(sorted, 50), percentile(sorted, 90),
+                    percentile(sorted, 99), sorted.get(sorted.size() - 1),
+                    nodes / sorted.size(), nodes * 1000.0 / Math.max(totalMs, 1));
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(i, sorted.size() - 1)));
+    }
+
+    private final Side a;
+    private final Side b;
+    private final long msPerMove;
+    private final int openingPlies;
+    private final double elo0;
+    private final double elo1;
+
+    private final AtomicBoolean decided = new AtomicBoolean();
+    private int played;
+
+    // null when the games are not recorded
+    private GameRecordWriter records;
+
+    Tournament(String engineA, String engineB, long msPerMove, int openingPlies,
+               double elo0, double elo1) {
+        this.a = new Side(engineA);
+        this.b = new Side(engineB);
+        this.msPerMove = msPerMove;
+        this.openingPlies = openingPlies;
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String engineA = (args.length > 0) ? args[0] : "minimax";
+        String engineB = (args.length > 1) ? args[1] : "cheap";
+        int games = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        long ms = (args.length > 3) ? Long.parseLong(args[3]) : 500;
+        int workers = (args.length > 4) ? Integer.parseInt(args[4])
+                                        : Runtime.getRuntime().availableProcessors();
+        int openingPlies = (args.length > 5) ? Integer.parseInt(args[5]) : 4;
+        double elo0 = (args.length > 6) ? Double.parseDouble(args[6]) : 0;
+        double elo1 = (args.length > 7) ? Double.parseDouble(args[7]) : 20;
+        Path recordFile = (args.length > 8) ? Paths.get(args[8]) : null;
+
+        // fail on a bad engine name before starting any game
+        create(engineA, 1);
+        create(engineB, 1);
+
+        System.out.println(engineA + " vs " + engineB + ": up to " + games + " games, "
+                + ms + " ms/move, " + workers + " at once, " + openingPlies + " opening plies, "
+                + String.format("SPRT elo0=%.0f elo1=%.0f", elo0, elo1));
+
+        Tournament t = new Tournament(engineA, engineB, ms, openingPlies, elo0, elo1);
+        if (recordFile == null) {
+            t.run(games, workers, new Random().nextLong());
+        } else {
+            try (GameRecordWriter w = new GameRecordWriter(recordFile)) {
+                t.records = w;
+                t.run(games, workers, new Random().nextLong());
+            }
+        }
+    }
+
+    void run(int games, int workers, long seed) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        for (int g = 0; g < games; g++) {
+            // both games of a pair share the opening seed
+            long openingSeed = seed + g / 2;
+            boolean aIsBlack = (g % 2 == 0);
+            pool.submit(() -> {
+                if (decided.get()) return;
+                try {
+                    playGame(openingSeed, aIsBlack);
+                } catch (RuntimeException e) {
+                    System.out.println("game failed: " + e);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        System.out.println();
+        System.out.println(status());
+        System.out.println(a.summary());
+        System.out.println(b.summary());
+    }
+
+    // play one game to the end and record it
+    private void playGame(long openingSeed, boolean aIsBlack) {
+        int[] opening = new int[openingPlies];
+        Board board = openingPosition(openingSeed, openingPlies, opening);
+        GameRecord rec = new GameRecord();
+        for (int m : opening) rec.add(m);
+
+        Side[] sides = new Side[3];
+        Engine[] engines = new Engine[3];
+        sides[1] = aIsBlack ? a : b;
+        sides[2] = aIsBlack ? b : a;
+        for (int p = 1; p <= 2; p++) engines[p] = create(sides[p].name, p);
+
+        // the opening leaves black to move after an even number of plies
+        int player = (openingPlies % 2 == 0) ? 1 : 2;
+        int winner;
+        while (true) {
+            if (!board.hasAnyMove(player)) {
+                winner = 3 - player;
+                break;
+            }
+            long start = System.nanoTime();
+            Move m = engines[player].move(board, msPerMove);
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            long nodes = engines[player].nodes();
+            sides[player].recordMove(ms, nodes);
+            if (ms > SLOW_FACTOR * msPerMove) {
+                System.out.println(sides[player].name + " took " + ms + " ms for a move");
+            }
+
+            // an engine that returns an illegal move loses the game
+            if (m == null || !board.isLegalMove(m.pack(), player)) {
+                synchronized (this) {
+                    sides[player].forfeits++;
+                }
+                winner = 3 - player;
+                break;
+            }
+            board.applyMove(m, player);
+            rec.add(m.pack(), engines[player].depth(), ms, nodes);
+            player = 3 - player;
+        }
+
+        if (records != null) {
+            rec.setWinner(winner);
+            try {
+                records.append(rec);
+            } catch (IOException e) {
+                System.out.println("could not record game: " + e.getMessage());
+            }
+        }
+
+        String line;
+        synchronized (this) {
+            sides[winner].wins++;
+            played++;
+            line = "game " + played + ": " + sides[winner].name + " wins as "
+                    + (winner == 1 ? "black" : "white") + ".  " + status();
+            double llr = llr(a.wins, b.wins, elo0, elo1);
+            if (llr <= lowerBound() || llr >= upperBound()) {
+                if (!decided.getAndSet(true)) {
+                    line += "\nSPRT decided: " + (llr >= upperBound() ? "H1 (accept " : "H0 (reject ")
+                            + a.name + ")";
+                }
+            }
+        }
+        System.out.println(line);
+    }
+
+    // the start position plus plies random legal moves, which are left
+    // in moves.  Also used by Tuner.
+    static Board openingPosition(long seed, int plies, int[] moves) {
+        Random rnd = new Random(seed);
+        int[] buf = new int[Board.MAX_MOVES];
+        while (true) {
+            Board board = new Board();
+            int player = 1;
+            int ply = 0;
+            for (; ply < plies; ply++) {
+                int n = board.generateMoves(player, buf);
+                if (n == 0) break;
+                moves[ply] = buf[rnd.nextInt(n)];
+                board.applyMove(moves[ply], player);
+                player = 3 - player;
+            }
+            // a random opening that already ends the game is no use
+            if (ply == plies) return board;
+        }
+    }
+
+    // "A 12 - 8 B, elo +70 [-40, +190], LLR 0.41 [-2.94, 2.94]"
+    private synchronized String status() {
+        int n = a.wins + b.wins;
+        StringBuilder sb = new StringBuilder();
+        sb.append(a.name).append(' ').append(a.wins).append(" - ").append(b.wins).append(' ').append(b.name);
+        if (a.forfeits + b.forfeits > 0) {
+            sb.append(" (forfeits ").append(a.forfeits).append('/').append(b.forfeits).append(')');
+        }
+        if (n > 0) {
+            double[] elo = eloInterval(a.wins, n);
+            sb.append(String.format(", elo %+.0f [%+.0f, %+.0f]", elo[0], elo[1], elo[2]));
+        }
+        sb.append(String.format(", LLR %.2f [%.2f, %.2f]",
+                llr(a.wins, b.wins, elo0, elo1), lowerBound(), upperBound()));
+        return sb.toString();
+    }
+
+    // expected score of a side that is elo points stronger
+    static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    // elo difference of a score in (0, 1), clamped at the ends
+    static double scoreToElo(double score) {
+        score = Math.max(1e-3, Math.min(score, 1 - 1e-3));
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    // elo estimate and its 95% confidence interval from wins out of n
+    static double[] eloInterval(int wins, int n) {
+        double s = (double) wins / n;
+        double margin = 1.96 * Math.sqrt(s * (1 - s) / n);
+        return new double[] {scoreToElo(s), scoreToElo(s - margin), scoreToElo(s + margin)};
+    }
+
+    // log likelihood ratio of H1 (elo1) over H0 (elo0) after the given
+    // wins and losses, for a win/loss (Bernoulli) result
+    static double llr(int wins, int losses, double elo0, double elo1) {
+        double p0 = expectedScore(elo0);
+        double p1 = expectedScore(elo1);
+        return wins * Math.log(p1 / p0) + losses * Math.log((1 - p1) / (1 - p0));
+    }
+
+    static double lowerBound() {
+        return Math.log(BETA / (1 - ALPHA));
+    }
+
+    static double upperBound() {
+        return Math.log((1 - BETA) / ALPHA);
+    }
+}
@@ -0,0 +1,112 @@
+package ubc.cosc322;
+
+// Fixed size transposition table for Minimax.
+//
+// The table is allocated once as plain primitive arrays, so it never
+// grows during a game and does not create garbage.  The number of
+// slots is a power of two and the slot is taken from the low bits of
+// the Zobrist key.
+//
+// Each slot holds
+//   data  : packed best move (21 bits), bound flag (2 bits),
+//           search depth (8 bits) and search age (8 bits)
+//   score : the minimax value
+//   check : key ^ data ^ score bits, used to verify the slot really
+//           belongs to the probed key (and was not torn by a write
+//           from another thread)
+public final class TranspositionTable {
+
+    // bound type of a stored score
+    public static final int EXACT = 0;   // score is the exact value
+    public static final int LOWER = 1;   // failed high, value >= score
+    public static final int UPPER = 2;   // failed low,  value <= score
+
+    private static final int MOVE_BITS  = 21;
+    private static final int FLAG_SHIFT = 21;
+    private static final int DEPTH_SHIFT = 23;
+    private static final int AGE_SHIFT  = 31;
+
+    private final long[] checks;
+    private final long[] data;
+    private final double[] scores;
+    private final int mask;
+
+    // incremented once per root search, so entries from earlier
+    // moves of the game can be replaced even if they are deeper
+    private int age;
+
+    // result of a successful probe.  Each search thread owns one,
+    // so probing does not allocate.
+    public static final class Entry {
+        public int depth;
+        public int flag;
+        public double score;
+        public int move;
+    }
+
+    // create a table with 2^log2Size slots
+    public TranspositionTable(int log2Size) {
+        int size = 1 << log2Size;
+        checks = new long[size];
+        data   = new long[size];
+        scores = new double[size];
+        mask   = size - 1;
+    }
+
+    // start a new search: older entries become preferred for replacement
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    // wipe the whole table
+    public void clear() {
+        java.util.Arrays.fill(checks, 0);
+        java.util.Arrays.fill(data, 0);
+        java.util.Arrays.fill(scores, 0);
+    }
+
+    // look up key.  Returns false if the slot holds another position.
+    public boolean probe(long key, Entry out) {
+        int i = (int) key & mask;
+        long d = data[i];
+        double s = scores[i];
+        if ((checks[i] ^ d ^ Double.doubleToRawLongBits(s)) != key || d == 0) {
+            return false;
+        }
+        out.move  = (int) (d & ((1L << MOVE_BITS) - 1));
+        out.flag  = (int) (d >>> FLAG_SHIFT) & 0x3;
+        out.depth = (int) (d >>> DEPTH_SHIFT) & 0xFF;
+        out.score = s;
+        return true;
+    }
+
+    // store a search result.  Depth-preferred replacement: a slot
+    // is only overwritten by a shallower result if it holds the same
+    // position or was written by an earlier search.
+    public void store(long key, int depth, int flag, double score, int move) {
+        int i = (int) key & mask;
+        long old = data[i];
+        double oldScore = scores[i];
+        boolean sameKey = (checks[i] ^ old ^ Double.doubleToRawLongBits(oldScore)) == key;
+
+        if (old != 0 && !sameKey) {
+            int oldDepth = (int) (old >>> DEPTH_SHIFT) & 0xFF;
+            int oldAge   = (int) (old >>> AGE_SHIFT) & 0xFF;
+            if (oldAge == age && oldDepth > depth) return;
+        }
+
+        // keep the old best move if this result has none
+        if (move == 0 && sameKey) {
+            move = (int) (old & ((1L << MOVE_BITS) - 1));
+        }
+
+        long d = (move & ((1L << MOVE_BITS) - 1))
+               | ((long) flag << FLAG_SHIFT)
+               | ((long) Math.min(depth, 0xFF) << DEPTH_SHIFT)
+               | ((long) age << AGE_SHIFT)
+               | (1L << 40);   // never 0, so an empty slot is recognisable
+        data[i]   = d;
+        scores[i] = score;
+        checks[i] = key ^ d ^ Double.doubleToRawLongBits(score);
+    }
+}
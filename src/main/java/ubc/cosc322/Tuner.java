@@ -0,0 +1,346 @@
+package ubc.cosc322;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Fits the weights in EvalParams and writes them to a parameter file,
+// which Minimax loads at run time (-Dparams=... for COSC322Test,
+// minimax:file in Tournament).
+//
+// texel: logistic regression of game results on the evaluation.
+//   Every position from ply minPly on in a game record file (see
+//   GameRecordReader) becomes a sample: the evaluation features from
+//   black's side (Minimax.evalFeatures) and 1 if black won the game,
+//   else 0.  Positions where all regions are settled are left out, the
+//   search scores those without the evaluation.  The features are
+//   extracted on all threads, then the weights w minimise the mean of
+//   (result - sigmoid(K * w.f))^2 by Adam, with the gradient summed in
+//   parallel batches.  K is fitted once for the starting weights and
+//   then kept, otherwise it would just trade scale with w.
+//
+// spsa: the move ordering weights only change which moves are searched
+//   first, so they cannot be read off positions.  SPSA perturbs all of
+//   them at once by +-c, plays a pair of games (one per colour, same
+//   random opening) between the two versions and moves the weights
+//   towards the winner.  Each step plays `threads` pairs at once, each
+//   with its own perturbation, and applies their average.
+//
+// usage: Tuner texel [records] [out] [threads] [minPly] [iterations] [start]
+//        Tuner spsa  [out] [steps] [msPerMove] [threads] [start]
+// e.g.   mvn exec:java "-Dexec.mainClass=ubc.cosc322.Tuner" "-Dexec.args=texel games.rec tuned.params 8 6 500"
+// start is a parameter file to begin from (the defaults otherwise).
+public class Tuner {
+
+    private static final int F = EvalParams.EVAL_COUNT;
+
+    // Adam step size and moment decay rates
+    private static final double LEARNING_RATE = 0.02;
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+
+    // spsa: perturbation of each weight as a fraction of its default
+    // (at least MIN_PERTURB), step decay, and random opening plies
+    private static final double PERTURB = 0.2;
+    private static final double MIN_PERTURB = 0.05;
+    private static final double SPSA_RATE = 0.5;
+    private static final int OPENING_PLIES = 4;
+
+    public static void main(String[] args) throws IOException {
+        String mode = (args.length > 0) ? args[0] : "texel";
+        if (mode.equals("texel")) {
+            Path records = Paths.get(args.length > 1 ? args[1] : "games.rec");
+            Path out = Paths.get(args.length > 2 ? args[2] : "tuned.params");
+            int threads = (args.length > 3) ? Integer.parseInt(args[3])
+                                            : Runtime.getRuntime().availableProcessors();
+            int minPly = (args.length > 4) ? Integer.parseInt(args[4]) : 6;
+            int iterations = (args.length > 5) ? Integer.parseInt(args[5]) : 500;
+            EvalParams start = (args.length > 6) ? EvalParams.load(Paths.get(args[6])) : new EvalParams();
+            texel(records, out, threads, minPly, iterations, start);
+        } else if (mode.equals("spsa")) {
+            Path out = Paths.get(args.length > 1 ? args[1] : "tuned.params");
+            int steps = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+            long ms = (args.length > 3) ? Long.parseLong(args[3]) : 200;
+            int threads = (args.length > 4) ? Integer.parseInt(args[4])
+                                            : Runtime.getRuntime().availableProcessors();
+            EvalParams start = (args.length > 5) ? EvalParams.load(Paths.get(args[5])) : new EvalParams();
+            spsa(out, steps, ms, threads, start);
+        } else {
+            System.out.println("usage: Tuner texel|spsa ...");
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // texel
+
+    // samples: F features per position, flattened, and the results
+    static final class Samples {
+        double[] features = new double[1024 * F];
+        double[] results = new double[1024];
+        int count;
+
+        void add(double[] f, double result) {
+            reserve(count + 1);
+            System.arraycopy(f, 0, features, count * F, F);
+            results[count++] = result;
+        }
+
+        void addAll(Samples o) {
+            reserve(count + o.count);
+            System.arraycopy(o.features, 0, features, count * F, o.count * F);
+            System.arraycopy(o.results, 0, results, count, o.count);
+            count += o.count;
+        }
+
+        private void reserve(int n) {
+            if (n <= results.length) return;
+            int cap = Math.max(n, results.length * 2);
+            results = Arrays.copyOf(results, cap);
+            features = Arrays.copyOf(features, cap * F);
+        }
+    }
+
+    static void texel(Path records, Path out, int threads, int minPly, int iterations,
+                      EvalParams start) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        GameRecordReader reader = GameRecordReader.open(records);
+
+        long t0 = System.nanoTime();
+        Samples samples = extract(reader, pool, minPly);
+        System.out.println(String.format("%d positions from %d games in %.1f s",
+                samples.count, reader.gameCount(), (System.nanoTime() - t0) / 1e9));
+        if (samples.count == 0) {
+            pool.shutdown();
+            return;
+        }
+
+        double[] w = new double[F];
+        for (int j = 0; j < F; j++) w[j] = start.get(j);
+        double k = fitK(samples, w, pool);
+        System.out.println(String.format("K = %.5f, error %.6f", k, error(samples, w, k, pool)));
+
+        // Adam
+        double[] m = new double[F];
+        double[] v = new double[F];
+        for (int it = 1; it <= iterations; it++) {
+            double[] g = gradient(samples, w, k, pool);
+            for (int j = 0; j < F; j++) {
+                m[j] = BETA1 * m[j] + (1 - BETA1) * g[j];
+                v[j] = BETA2 * v[j] + (1 - BETA2) * g[j] * g[j];
+                double mh = m[j] / (1 - Math.pow(BETA1, it));
+                double vh = v[j] / (1 - Math.pow(BETA2, it));
+                w[j] -= LEARNING_RATE * mh / (Math.sqrt(vh) + 1e-12);
+            }
+            if (it % 50 == 0 || it == iterations) {
+                System.out.println(String.format("iteration %d: error %.6f", it, error(samples, w, k, pool)));
+            }
+        }
+        pool.shutdown();
+
+        EvalParams tuned = new EvalParams(start);
+        for (int j = 0; j < F; j++) tuned.set(j, w[j]);
+        tuned.save(out, "texel fit on " + samples.count + " positions of " + records);
+        System.out.println(tuned);
+        System.out.println("wrote " + out);
+    }
+
+    // the sample positions of all games, features from black's side
+    static Samples extract(GameRecordReader reader, ForkJoinPool pool, int minPly) {
+        // evalFeatures only reads the Minimax, so the threads share one
+        Minimax model = new Minimax(1, 2, 1);
+        int n = reader.gameCount();
+        int chunks = Math.max(1, Math.min(n, pool.getParallelism() * 8));
+        List<ForkJoinTask<Samples>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            int lo = (int) ((long) n * c / chunks);
+            int hi = (int) ((long) n * (c + 1) / chunks);
+            tasks.add(pool.submit(() -> {
+                Samples s = new Samples();
+                TerritoryEvaluator territory = new TerritoryEvaluator();
+                PartitionAnalyser partition = new PartitionAnalyser();
+                double[] f = new double[F];
+                for (int g = lo; g < hi; g++) {
+                    int winner = reader.winner(g);
+                    if (winner == 0) continue;
+                    double result = (winner == 1) ? 1 : 0;
+                    reader.replay(g, new Board(), (game, ply, board, player, move) -> {
+                        if (ply < minPly) return;
+                        partition.analyse(board);
+                        if (partition.isSettled()) return;
+                        model.evalFeatures(board, territory, f);
+                        s.add(f, result);
+                    });
+                }
+                return s;
+            }));
+        }
+        Samples all = new Samples();
+        for (ForkJoinTask<Samples> t : tasks) all.addAll(t.join());
+        return all;
+    }
+
+    private static double sigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+
+    // the K that fits the weights w best, golden section search on log K
+    static double fitK(Samples s, double[] w, ForkJoinPool pool) {
+        double lo = Math.log(1e-4), hi = Math.log(1);
+        double phi = (Math.sqrt(5) - 1) / 2;
+        double a = hi - phi * (hi - lo), b = lo + phi * (hi - lo);
+        double ea = error(s, w, Math.exp(a), pool), eb = error(s, w, Math.exp(b), pool);
+        for (int i = 0; i < 40; i++) {
+            if (ea < eb) {
+                hi = b; b = a; eb = ea;
+                a = hi - phi * (hi - lo);
+                ea = error(s, w, Math.exp(a), pool);
+            } else {
+                lo = a; a = b; ea = eb;
+                b = lo + phi * (hi - lo);
+                eb = error(s, w, Math.exp(b), pool);
+            }
+        }
+        return Math.exp((lo + hi) / 2);
+    }
+
+    // mean squared error of the predictions
+    static double error(Samples s, double[] w, double k, ForkJoinPool pool) {
+        return sumOverBatches(s, w, k, pool, false)[F] / s.count;
+    }
+
+    // gradient of the mean squared error with respect to w
+    static double[] gradient(Samples s, double[] w, double k, ForkJoinPool pool) {
+        double[] sum = sumOverBatches(s, w, k, pool, true);
+        double[] g = new double[F];
+        for (int j = 0; j < F; j++) g[j] = sum[j] / s.count;
+        return g;
+    }
+
+    // sum of the squared errors (at index F) and, if wanted, of their
+    // gradients (0 .. F-1) over all samples, in parallel batches
+    private static double[] sumOverBatches(Samples s, double[] w, double k,
+                                           ForkJoinPool pool, boolean withGradient) {
+        int batches = pool.getParallelism() * 4;
+        List<ForkJoinTask<double[]>> tasks = new ArrayList<>(batches);
+        for (int b = 0; b < batches; b++) {
+            int lo = (int) ((long) s.count * b / batches);
+            int hi = (int) ((long) s.count * (b + 1) / batches);
+            tasks.add(pool.submit(() -> {
+                double[] acc = new double[F + 1];
+                double[] f = s.features;
+                for (int i = lo; i < hi; i++) {
+                    int base = i * F;
+                    double score = 0;
+                    for (int j = 0; j < F; j++) score += w[j] * f[base + j];
+                    double p = sigmoid(k * score);
+                    double err = s.results[i] - p;
+                    acc[F] += err * err;
+                    if (withGradient) {
+                        double d = -2 * err * p * (1 - p) * k;
+                        for (int j = 0; j < F; j++) acc[j] += d * f[base + j];
+                    }
+                }
+                return acc;
+            }));
+        }
+        double[] total = new double[F + 1];
+        for (ForkJoinTask<double[]> t : tasks) {
+            double[] acc = t.join();
+            for (int j = 0; j <= F; j++) total[j] += acc[j];
+        }
+        return total;
+    }
+
+    // ---------------------------------------------------------------
+    // spsa
+
+    static void spsa(Path out, int steps, long ms, int threads, EvalParams start) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Random rnd = new Random();
+        EvalParams theta = new EvalParams(start);
+
+        int first = F, count = EvalParams.COUNT - F;
+        double[] c = new double[count];
+        for (int i = 0; i < count; i++) {
+            c[i] = Math.max(Math.abs(EvalParams.defaultValue(first + i)) * PERTURB, MIN_PERTURB);
+        }
+
+        for (int step = 0; step < steps; step++) {
+            double rate = SPSA_RATE / Math.pow(1 + step / 10.0, 0.602);
+            double shrink = 1 / Math.pow(1 + step, 0.101);
+
+            // one perturbation and one game pair per thread
+            List<int[]> deltas = new ArrayList<>();
+            List<ForkJoinTask<Integer>> pairs = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int[] delta = new int[count];
+                EvalParams plus = new EvalParams(theta);
+                EvalParams minus = new EvalParams(theta);
+                for (int i = 0; i < count; i++) {
+                    delta[i] = rnd.nextBoolean() ? 1 : -1;
+                    double d = delta[i] * c[i] * shrink;
+                    plus.set(first + i, theta.get(first + i) + d);
+                    minus.set(first + i, theta.get(first + i) - d);
+                }
+                long seed = rnd.nextLong();
+                deltas.add(delta);
+                pairs.add(pool.submit(() -> playPair(plus, minus, ms, seed)));
+            }
+
+            int total = 0;
+            double[] move = new double[count];
+            for (int t = 0; t < threads; t++) {
+                int result = pairs.get(t).join();    // -2 .. 2, games won by plus minus minus
+                total += result;
+                int[] delta = deltas.get(t);
+                for (int i = 0; i < count; i++) {
+                    move[i] += rate * c[i] * (result / 2.0) * delta[i] / threads;
+                }
+            }
+            for (int i = 0; i < count; i++) theta.set(first + i, theta.get(first + i) + move[i]);
+
+            System.out.println("step " + (step + 1) + ": plus - minus = " + total + ", " + theta);
+            // written every step, so a long run can be stopped
+            theta.save(out, "spsa, " + (step + 1) + " steps of " + threads + " game pairs at " + ms + " ms");
+        }
+        pool.shutdown();
+        System.out.println("wrote " + out);
+    }
+
+    // two games between the weights plus and minus from the same random
+    // opening, one with each colour.  Returns plus's wins minus minus's.
+    static int playPair(EvalParams plus, EvalParams minus, long ms, long seed) {
+        int score = 0;
+        for (int plusColour = 1; plusColour <= 2; plusColour++) {
+            int winner = playGame(plusColour == 1 ? plus : minus, plusColour == 1 ? minus : plus, ms, seed);
+            score += (winner == plusColour) ? 1 : -1;
+        }
+        return score;
+    }
+
+    // one game, black with the weights black and white with white.
+    // Returns the winner.
+    static int playGame(EvalParams black, EvalParams white, long ms, long seed) {
+        Board board = Tournament.openingPosition(seed, OPENING_PLIES, new int[OPENING_PLIES]);
+        Minimax[] engines = new Minimax[3];
+        engines[1] = new Minimax(1, 2, 2);
+        engines[1].setParams(black);
+        engines[2] = new Minimax(2, 1, 2);
+        engines[2].setParams(white);
+
+        int player = (OPENING_PLIES % 2 == 0) ? 1 : 2;
+        while (board.hasAnyMove(player)) {
+            Move m = engines[player].findBestMoveIterative(board, ms);
+            if (m == null || !board.isLegalMove(m.pack(), player)) break;
+            board.applyMove(m, player);
+            player = 3 - player;
+        }
+        return 3 - player;
+    }
+}
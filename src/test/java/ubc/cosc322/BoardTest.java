@@ -0,0 +1,181 @@
+package ubc.cosc322;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// applyMove/undoMove against the state Board keeps incrementally:
+// the Zobrist key, the mobility counters and the empty regions
+public class BoardTest {
+
+    private static final int N = Board.SIZE * Board.SIZE;
+
+    // after a move the incremental state matches a board built from scratch
+    @Test
+    public void applyMatchesRecomputed() {
+        Random rnd = new Random(322);
+        int[] buf = new int[Board.MAX_MOVES];
+        for (int game = 0; game < 20; game++) {
+            Board board = new Board();
+            int player = 1;
+            int n;
+            while ((n = board.generateMoves(player, buf)) > 0) {
+                board.applyMove(buf[rnd.nextInt(n)], player);
+                player = 3 - player;
+                assertMatchesFresh(board);
+            }
+        }
+    }
+
+    // undoing every legal move restores the exact values, region ids included
+    @Test
+    public void undoRestoresExactState() {
+        Random rnd = new Random(323);
+        int[] buf = new int[Board.MAX_MOVES];
+        for (int game = 0; game < 10; game++) {
+            Board board = new Board();
+            int player = 1;
+            int n;
+            while ((n = board.generateMoves(player, buf)) > 0) {
+                long hash = board.getHash();
+                int[] before = snapshot(board);
+                // every move on short lists, a sample in the opening
+                int step = Math.max(1, n / 200);
+                for (int i = 0; i < n; i += step) {
+                    board.applyMove(buf[i], player);
+                    board.undoMove(buf[i], player);
+                    assertEquals(hash, board.getHash());
+                    assertArrayEqualsAt(before, snapshot(board), buf[i]);
+                }
+                board.applyMove(buf[rnd.nextInt(n)], player);
+                player = 3 - player;
+            }
+        }
+    }
+
+    // the list API with its MoveRecord undoes the same way
+    @Test
+    public void undoWithMoveRecord() {
+        Board board = new Board();
+        long hash = board.getHash();
+        int[] before = snapshot(board);
+        for (Move m : board.generateAllMoves(1)) {
+            Board.MoveRecord rec = board.applyMove(m, 1);
+            board.undoMove(m, 1, rec);
+            assertEquals(hash, board.getHash());
+            assertArrayEqualsAt(before, snapshot(board), m.pack());
+        }
+    }
+
+    // set() keeps the same state up to date: a start board edited into
+    // a game position square by square matches that position
+    @Test
+    public void setMatchesRecomputed() {
+        Random rnd = new Random(324);
+        int[] buf = new int[Board.MAX_MOVES];
+        for (int game = 0; game < 10; game++) {
+            Board board = new Board();
+            int player = 1;
+            int n;
+            while ((n = board.generateMoves(player, buf)) > 0) {
+                board.applyMove(buf[rnd.nextInt(n)], player);
+                player = 3 - player;
+                if (rnd.nextInt(8) != 0) continue;
+
+                Board edited = new Board();
+                for (int r = 0; r < Board.SIZE; r++) {
+                    for (int c = 0; c < Board.SIZE; c++) {
+                        edited.set(r, c, board.get(r, c));
+                    }
+                }
+                assertEquals(board.getHash(), edited.getHash());
+                assertMatchesFresh(edited);
+            }
+        }
+    }
+
+    // grid, per-queen mobility, side mobility, region id and region size
+    private static int[] snapshot(Board board) {
+        RegionTracker regions = board.getRegions();
+        int[] s = new int[N * 4 + 2];
+        for (int sq = 0; sq < N; sq++) {
+            int id = regions.regionOf(sq);
+            s[sq] = board.get(sq / Board.SIZE, sq % Board.SIZE);
+            s[N + sq] = board.queenMobility(sq);
+            s[2 * N + sq] = id;
+            s[3 * N + sq] = (id < 0) ? 0 : regions.regionSize(id);
+        }
+        s[4 * N] = board.mobility(1);
+        s[4 * N + 1] = board.mobility(2);
+        return s;
+    }
+
+    private static void assertArrayEqualsAt(int[] expected, int[] actual, int move) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                assertEquals(expected[i], actual[i], "entry " + i + " after undoing "
+                        + Move.from(move) + "-" + Move.to(move) + "x" + Move.arrow(move));
+            }
+        }
+    }
+
+    private static void assertMatchesFresh(Board board) {
+        Board fresh = rebuilt(board);
+        assertEquals(board.computeHash(), board.getHash());
+        assertEquals(fresh.getHash(), board.getHash());
+        assertEquals(mobility(board, board.getBlackQueens()), board.mobility(1));
+        assertEquals(mobility(board, board.getWhiteQueens()), board.mobility(2));
+
+        // region ids may differ, the partition may not
+        RegionTracker a = board.getRegions(), b = fresh.getRegions();
+        for (int s = 0; s < N; s++) {
+            assertEquals(b.regionOf(s) < 0, a.regionOf(s) < 0, "occupied " + s);
+            if (a.regionOf(s) < 0) continue;
+            assertEquals(b.regionSize(b.regionOf(s)), a.regionSize(a.regionOf(s)), "size at " + s);
+            for (int t = s + 1; t < N; t++) {
+                if (a.regionOf(t) < 0) continue;
+                assertEquals(b.regionOf(s) == b.regionOf(t), a.regionOf(s) == a.regionOf(t),
+                        "squares " + s + " and " + t);
+            }
+        }
+    }
+
+    // a board read from the server format of board's grid, so all of
+    // its incremental state is rebuilt from scratch.  Built by hand, the
+    // server uses 1 for white and 2 for black and pads row and column 0.
+    static Board rebuilt(Board board) {
+        ArrayList<Integer> raw121 = new ArrayList<>();
+        for (int i = 0; i < 121; i++) raw121.add(0);
+        for (int r = 0; r < Board.SIZE; r++) {
+            for (int c = 0; c < Board.SIZE; c++) {
+                int v = board.get(r, c);
+                if (v == 1) v = 2;
+                else if (v == 2) v = 1;
+                raw121.set((r + 1) * 11 + c + 1, v);
+            }
+        }
+        return new Board(raw121);
+    }
+
+    static void assertSameGrid(Board expected, Board actual) {
+        for (int r = 0; r < Board.SIZE; r++) {
+            for (int c = 0; c < Board.SIZE; c++) {
+                assertEquals(expected.get(r, c), actual.get(r, c), "square " + r + "," + c);
+            }
+        }
+    }
+
+    private static int mobility(Board board, List<int[]> queens) {
+        int total = 0;
+        for (int[] q : queens) {
+            int sq = q[0] * Board.SIZE + q[1];
+            assertEquals(board.countQueenMoves(sq), board.queenMobility(sq));
+            total += board.countQueenMoves(sq);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,142 @@
+package ubc.cosc322;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// GameRecordWriter -> GameRecordReader round trips
+public class GameRecordTest {
+
+    private Path file;
+
+    @BeforeEach
+    public void createFile() throws IOException {
+        file = Files.createTempFile("games", ".rec");
+    }
+
+    @AfterEach
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        GameRecord plain = randomGame(1, false);
+        GameRecord searched = randomGame(2, true);
+        try (GameRecordWriter w = new GameRecordWriter(file)) {
+            w.append(plain);
+        }
+        // a second writer appends behind the existing games
+        try (GameRecordWriter w = new GameRecordWriter(file)) {
+            w.append(searched);
+        }
+
+        GameRecordReader r = GameRecordReader.open(file);
+        assertEquals(2, r.gameCount());
+        assertSame(plain, r, 0);
+        assertSame(searched, r, 1);
+        assertFalse(r.hasStats(0));
+        assertTrue(r.hasStats(1));
+        for (int ply = 0; ply < searched.getPlies(); ply++) {
+            int expected = (ply % 2 == 0) ? ply + 1 : 0;
+            assertEquals(expected, r.depth(1, ply));
+            assertEquals(expected * 10, r.timeMs(1, ply));
+            assertEquals(expected * 1000, r.nodes(1, ply));
+        }
+
+        // replay ends in the position the moves lead to
+        Board replayed = new Board();
+        r.replay(1, replayed, null);
+        BoardTest.assertSameGrid(play(searched), replayed);
+
+        AtomicLong visited = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        long plies = r.replayAll(pool, (g, ply, board, player, move) -> visited.incrementAndGet());
+        pool.shutdown();
+        assertEquals(plain.getPlies() + searched.getPlies(), plies);
+        assertEquals(plies, visited.get());
+    }
+
+    // a crash while appending leaves a cut-off block, which is skipped
+    @Test
+    public void cutOffLastGame() throws IOException {
+        GameRecord first = randomGame(3, true);
+        GameRecord second = randomGame(4, true);
+        try (GameRecordWriter w = new GameRecordWriter(file)) {
+            w.append(first);
+            w.append(second);
+        }
+        long full = Files.size(file);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(full - 5);
+        }
+
+        GameRecordReader r = GameRecordReader.open(file);
+        assertEquals(1, r.gameCount());
+        assertSame(first, r, 0);
+
+        // only a header fragment of the second game left
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(full - second.encodedSize() + 2);
+        }
+        assertEquals(1, GameRecordReader.open(file).gameCount());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Files.write(file, "not a record".getBytes("UTF-8"));
+        assertThrows(IOException.class, () -> new GameRecordWriter(file));
+        assertThrows(IOException.class, () -> GameRecordReader.open(file));
+    }
+
+    private static void assertSame(GameRecord expected, GameRecordReader r, int game) {
+        assertEquals(expected.getPlies(), r.plies(game));
+        assertEquals(expected.getWinner(), r.winner(game));
+        for (int ply = 0; ply < expected.getPlies(); ply++) {
+            assertEquals(expected.getMove(ply), r.move(game, ply), "ply " + ply);
+        }
+    }
+
+    // a random game to the end.  With stats every other ply gets made up
+    // search numbers, the rest none.
+    private static GameRecord randomGame(long seed, boolean stats) {
+        Random rnd = new Random(seed);
+        GameRecord game = new GameRecord();
+        Board board = new Board();
+        int[] buf = new int[Board.MAX_MOVES];
+        int player = 1;
+        int n;
+        while ((n = board.generateMoves(player, buf)) > 0) {
+            int m = buf[rnd.nextInt(n)];
+            int ply = game.getPlies();
+            if (stats && ply % 2 == 0) game.add(m, ply + 1, (ply + 1) * 10, (ply + 1) * 1000);
+            else game.add(m);
+            board.applyMove(m, player);
+            player = 3 - player;
+        }
+        game.setWinner(3 - player);
+        return game;
+    }
+
+    private static Board play(GameRecord game) {
+        Board board = new Board();
+        for (int ply = 0; ply < game.getPlies(); ply++) {
+            board.applyMove(game.getMove(ply), (ply % 2 == 0) ? 1 : 2);
+        }
+        return board;
+    }
+}
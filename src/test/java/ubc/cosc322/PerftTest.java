@@ -0,0 +1,26 @@
+package ubc.cosc322;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+// move generator against the known perft counts from the start position
+public class PerftTest {
+
+    @Test
+    public void depthOne() {
+        Board board = new Board();
+        assertEquals(Perft.START_COUNTS[1], Perft.perft(board, 1, 1));
+        assertEquals(Perft.START_COUNTS[1], Perft.perftList(board, 1, 1));
+    }
+
+    @Test
+    public void depthTwo() {
+        Board board = new Board();
+        long hash = board.getHash();
+        assertEquals(Perft.START_COUNTS[2], Perft.perft(board, 1, 2));
+        // perft applies and undoes every move on the board it is given
+        assertEquals(hash, board.getHash());
+        BoardTest.assertSameGrid(new Board(), board);
+    }
+}
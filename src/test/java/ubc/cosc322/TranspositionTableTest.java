@@ -0,0 +1,72 @@
+package ubc.cosc322;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TranspositionTableTest {
+
+    // two keys that share a slot in a 2^10 table
+    private static final long KEY = 0x1234_5678_9ABC_D3A5L;
+    private static final long OTHER = KEY ^ (1L << 40);
+
+    @Test
+    public void storeProbeRoundTrip() {
+        TranspositionTable tt = new TranspositionTable(10);
+        TranspositionTable.Entry e = new TranspositionTable.Entry();
+        assertFalse(tt.probe(KEY, e));
+
+        int move = Move.pack(93, 53, 99);
+        tt.store(KEY, 7, TranspositionTable.LOWER, -12.625, move);
+        assertTrue(tt.probe(KEY, e));
+        assertEquals(7, e.depth);
+        assertEquals(TranspositionTable.LOWER, e.flag);
+        assertEquals(-12.625, e.score);
+        assertEquals(move, e.move);
+
+        // same slot, different position
+        assertFalse(tt.probe(OTHER, e));
+    }
+
+    // a result without a move keeps the move stored for the position
+    @Test
+    public void keepsBestMove() {
+        TranspositionTable tt = new TranspositionTable(10);
+        TranspositionTable.Entry e = new TranspositionTable.Entry();
+        int move = Move.pack(3, 33, 30);
+        tt.store(KEY, 2, TranspositionTable.EXACT, 1.5, move);
+        tt.store(KEY, 3, TranspositionTable.UPPER, 0.5, 0);
+        assertTrue(tt.probe(KEY, e));
+        assertEquals(3, e.depth);
+        assertEquals(TranspositionTable.UPPER, e.flag);
+        assertEquals(0.5, e.score);
+        assertEquals(move, e.move);
+    }
+
+    // a deeper entry of this search is kept, one of an earlier search is not
+    @Test
+    public void depthPreferredReplacement() {
+        TranspositionTable tt = new TranspositionTable(10);
+        TranspositionTable.Entry e = new TranspositionTable.Entry();
+        tt.store(KEY, 6, TranspositionTable.EXACT, 4.0, 0);
+        tt.store(OTHER, 2, TranspositionTable.EXACT, 8.0, 0);
+        assertTrue(tt.probe(KEY, e));
+        assertFalse(tt.probe(OTHER, e));
+
+        tt.newSearch();
+        tt.store(OTHER, 2, TranspositionTable.EXACT, 8.0, 0);
+        assertFalse(tt.probe(KEY, e));
+        assertTrue(tt.probe(OTHER, e));
+        assertEquals(8.0, e.score);
+    }
+
+    @Test
+    public void clearEmptiesTable() {
+        TranspositionTable tt = new TranspositionTable(10);
+        tt.store(KEY, 1, TranspositionTable.EXACT, 0.0, Move.pack(1, 2, 3));
+        tt.clear();
+        assertFalse(tt.probe(KEY, new TranspositionTable.Entry()));
+    }
+}